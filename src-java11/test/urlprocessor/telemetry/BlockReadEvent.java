@@ -0,0 +1,26 @@
+package test.urlprocessor.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Read and split a file block into lines.
+ */
+@Name("test.urlprocessor.BlockRead")
+@Label("Block Read")
+@Category("URLFileProcessor")
+@Description("Read and split a file block into lines")
+class BlockReadEvent extends Event {
+
+	@Label("File")
+	String file;
+
+	@Label("Block")
+	int block;
+
+	@Label("Lines")
+	int lines;
+}
@@ -0,0 +1,20 @@
+package test.urlprocessor.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time spent waiting for a pooled connection.
+ */
+@Name("test.urlprocessor.LeaseWait")
+@Label("Connection Lease Wait")
+@Category("URLFileProcessor")
+@Description("Time spent waiting for a pooled connection")
+class LeaseWaitEvent extends Event {
+
+	@Label("Host")
+	String host;
+}
@@ -0,0 +1,20 @@
+package test.urlprocessor.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time spent acquiring a pipeline lock.
+ */
+@Name("test.urlprocessor.LockWait")
+@Label("Lock Wait")
+@Category("URLFileProcessor")
+@Description("Time spent acquiring a pipeline lock")
+class LockWaitEvent extends Event {
+
+	@Label("Lock")
+	String lock;
+}
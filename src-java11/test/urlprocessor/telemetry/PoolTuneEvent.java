@@ -0,0 +1,23 @@
+package test.urlprocessor.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * HttpClientManager tuning route limits for a block of URLs.
+ */
+@Name("test.urlprocessor.PoolTune")
+@Label("Pool Tune")
+@Category("URLFileProcessor")
+@Description("HttpClientManager tuning route limits for a block of URLs")
+class PoolTuneEvent extends Event {
+
+	@Label("URLs")
+	int urls;
+
+	@Label("Hosts")
+	int hosts;
+}
@@ -0,0 +1,23 @@
+package test.urlprocessor.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time spent adding a block to or taking a block from WorkScheduler, including waits.
+ */
+@Name("test.urlprocessor.QueueWait")
+@Label("Queue Wait")
+@Category("URLFileProcessor")
+@Description("Time spent adding a block to or taking a block from WorkScheduler, including waits")
+class QueueWaitEvent extends Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("URLs")
+	int urls;
+}
@@ -0,0 +1,30 @@
+package test.urlprocessor.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Execution of an HTTP GET including reading the body.
+ */
+@Name("test.urlprocessor.Request")
+@Label("HTTP Request")
+@Category("URLFileProcessor")
+@Description("Execution of an HTTP GET including reading the body")
+class RequestEvent extends Event {
+
+	@Label("URL")
+	String url;
+
+	@Label("Host")
+	String host;
+
+	@Label("Status")
+	int status;
+
+	@Label("Bytes") @DataAmount
+	long bytes;
+}
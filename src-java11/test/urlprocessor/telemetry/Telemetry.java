@@ -0,0 +1,129 @@
+package test.urlprocessor.telemetry;
+
+import java.io.File;
+
+/**
+ * Facade for JDK Flight Recorder events of the pipeline. Every <i>begin</i> method returns an
+ * event to be passed to the matching <i>end</i> method, or null when recording is off.
+ * <br/>
+ * This is the Java 11+ version, packaged under META-INF/versions/11 of the multi-release jar.
+ * Events are only created when enabled with <b>--jfr</b>, and only committed when the event type
+ * is enabled in the running recording.
+ */
+public final class Telemetry {
+
+	private static volatile boolean enabled;
+
+	private Telemetry() {
+	}
+
+	public static void setEnabled(boolean enabled) {
+		Telemetry.enabled = enabled;
+	}
+
+	public static boolean isSupported() {
+		return true;
+	}
+
+	public static Object beginBlockRead() {
+		return enabled ? begin(new BlockReadEvent()) : null;
+	}
+
+	public static void endBlockRead(Object event, File file, int block, int lines) {
+		if (event == null)
+			return;
+		BlockReadEvent blockRead = (BlockReadEvent) event;
+		blockRead.end();
+		if (blockRead.shouldCommit()) {
+			blockRead.file = file.getPath();
+			blockRead.block = block;
+			blockRead.lines = lines;
+			blockRead.commit();
+		}
+	}
+
+	public static Object beginQueueWait() {
+		return enabled ? begin(new QueueWaitEvent()) : null;
+	}
+
+	public static void endQueueWait(Object event, String operation, int urls) {
+		if (event == null)
+			return;
+		QueueWaitEvent queueWait = (QueueWaitEvent) event;
+		queueWait.end();
+		if (queueWait.shouldCommit()) {
+			queueWait.operation = operation;
+			queueWait.urls = urls;
+			queueWait.commit();
+		}
+	}
+
+	public static Object beginLockWait() {
+		return enabled ? begin(new LockWaitEvent()) : null;
+	}
+
+	public static void endLockWait(Object event, String lock) {
+		if (event == null)
+			return;
+		LockWaitEvent lockWait = (LockWaitEvent) event;
+		lockWait.end();
+		if (lockWait.shouldCommit()) {
+			lockWait.lock = lock;
+			lockWait.commit();
+		}
+	}
+
+	public static Object beginPoolTune() {
+		return enabled ? begin(new PoolTuneEvent()) : null;
+	}
+
+	public static void endPoolTune(Object event, int urls, int hosts) {
+		if (event == null)
+			return;
+		PoolTuneEvent poolTune = (PoolTuneEvent) event;
+		poolTune.end();
+		if (poolTune.shouldCommit()) {
+			poolTune.urls = urls;
+			poolTune.hosts = hosts;
+			poolTune.commit();
+		}
+	}
+
+	public static Object beginLeaseWait() {
+		return enabled ? begin(new LeaseWaitEvent()) : null;
+	}
+
+	public static void endLeaseWait(Object event, String host) {
+		if (event == null)
+			return;
+		LeaseWaitEvent leaseWait = (LeaseWaitEvent) event;
+		leaseWait.end();
+		if (leaseWait.shouldCommit()) {
+			leaseWait.host = host;
+			leaseWait.commit();
+		}
+	}
+
+	public static Object beginRequest() {
+		return enabled ? begin(new RequestEvent()) : null;
+	}
+
+	public static void endRequest(Object event, String url, String host, int status, long bytes) {
+		if (event == null)
+			return;
+		RequestEvent request = (RequestEvent) event;
+		request.end();
+		if (request.shouldCommit()) {
+			request.url = url;
+			request.host = host;
+			request.status = status;
+			request.bytes = bytes;
+			request.commit();
+		}
+	}
+
+	private static <T extends jdk.jfr.Event> T begin(T event) {
+		event.begin();
+		return event;
+	}
+}
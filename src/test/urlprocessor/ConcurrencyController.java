@@ -0,0 +1,219 @@
+package test.urlprocessor;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.urlprocessor.http.HttpClientManager;
+import test.urlprocessor.http.HttpGetBlockProcessor;
+import test.urlprocessor.http.body.BodyProcessing;
+import test.urlprocessor.schedule.WorkScheduler;
+
+/**
+ * Closed loop controller for number of active HttpGetBlockProcessor workers.
+ * Every few seconds it samples completed requests/sec, average latency and CPU load, and
+ * hill-climbs the worker count towards peak throughput. Like TCP congestion control, it keeps
+ * moving in the same direction with additive steps while throughput improves and reverses
+ * with a halved step when throughput drops.
+ * The connection pool size of HttpClientManager follows the worker count.
+ */
+public class ConcurrencyController implements Runnable {
+
+	private final int ADJUST_INTERVAL_SECS = 5;
+	private final double THROUGHPUT_THRESHOLD = 0.05;
+	private final double LATENCY_THRESHOLD = 0.2;
+	private final double CPU_LIMIT = 0.9;
+
+	private final ExecutorService threadPool;
+	private final WorkScheduler workQueue;
+	private final ProgressReport progress;
+	private final int minWorkers;
+	private final int maxWorkers;
+	private final int minStep;
+	private final BodyProcessing bodyProcessing;
+
+	private final List<Future<Boolean>> workerFutures;
+	private final AtomicInteger retireRequests;
+	private final OperatingSystemMXBean osBean;
+
+	private int activeWorkers;
+	private int step;
+	private int direction;
+	private double lastThroughput;
+	private double lastLatency;
+	private volatile boolean stopped;
+
+	/**
+	 * @param threadPool Thread pool to submit workers to. It must be able to grow up to maxWorkers
+	 * @param workQueue WorkScheduler that hold workload
+	 * @param progress Instance of ProgressReport used to measure throughput
+	 * @param minWorkers Lower bound of active workers
+	 * @param maxWorkers Upper bound of active workers
+	 * @param bodyProcessing Body processors for workers, or null
+	 */
+	public ConcurrencyController(ExecutorService threadPool, WorkScheduler workQueue,
+			ProgressReport progress, int minWorkers, int maxWorkers, BodyProcessing bodyProcessing) {
+		this.threadPool = threadPool;
+		this.workQueue = workQueue;
+		this.progress = progress;
+		this.minWorkers = minWorkers;
+		this.maxWorkers = maxWorkers;
+		this.minStep = Math.max(1, minWorkers / 2);
+		this.bodyProcessing = bodyProcessing;
+		this.workerFutures = Collections.synchronizedList(new ArrayList<>());
+		this.retireRequests = new AtomicInteger();
+		this.osBean = ManagementFactory.getOperatingSystemMXBean();
+		this.step = minStep;
+		this.direction = 1;
+	}
+
+	/**
+	 * Submits the initial set of workers.
+	 * @param initialWorkers Number of workers to start with
+	 */
+	public void start(int initialWorkers) {
+		setActiveWorkers(Math.max(minWorkers, Math.min(maxWorkers, initialWorkers)));
+	}
+
+	/**
+	 * Stops adjusting the worker count. Running workers are left as they are.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Called by workers before pulling next block. Returns true if the calling worker
+	 * should exit because the controller has shrunk the worker count.
+	 * @return
+	 */
+	public boolean shouldRetire() {
+		return retireRequests.getAndUpdate(n -> n > 0 ? n - 1 : n) > 0;
+	}
+
+	public synchronized int getActiveWorkers() {
+		return activeWorkers;
+	}
+
+	@Override
+	public void run() {
+		int lastTotal = progress.getTotal();
+		long lastLatencyTotal = progress.getLatency();
+		long lastTime = System.currentTimeMillis();
+
+		while (!stopped && !progress.isStepComplete(1)) {
+			try { Thread.sleep(ADJUST_INTERVAL_SECS * 1000); } catch (InterruptedException e) { return; }
+
+			int total = progress.getTotal();
+			long latencyTotal = progress.getLatency();
+			long time = System.currentTimeMillis();
+
+			int completed = total - lastTotal;
+			double throughput = completed * 1000.0 / Math.max(1, time - lastTime);
+			double latency = completed > 0 ? (double)(latencyTotal - lastLatencyTotal) / completed : 0;
+
+			lastTotal = total;
+			lastLatencyTotal = latencyTotal;
+			lastTime = time;
+
+			// Workers are starved by file readers, changing their count tells us nothing
+			if (completed == 0 || workQueue.isEmpty())
+				continue;
+
+			adjust(throughput, latency, getCpuLoad());
+		}
+	}
+
+	/**
+	 * One step of the hill climb.
+	 * <ul>
+	 * 	<li>CPU saturated: shrink and halve the step</li>
+	 * 	<li>Throughput improved: keep direction and grow the step additively</li>
+	 * 	<li>Throughput dropped: reverse direction and halve the step</li>
+	 * 	<li>Throughput flat but latency grew: extra workers are only queueing, shrink</li>
+	 * </ul>
+	 */
+	private void adjust(double throughput, double latency, double cpuLoad) {
+		if (cpuLoad > CPU_LIMIT) {
+			direction = -1;
+			step = Math.max(minStep, step / 2);
+		} else if (lastThroughput > 0) {
+			double gain = (throughput - lastThroughput) / lastThroughput;
+			if (gain > THROUGHPUT_THRESHOLD) {
+				step += minStep;
+			} else if (gain < -THROUGHPUT_THRESHOLD) {
+				direction = -direction;
+				step = Math.max(minStep, step / 2);
+			} else if (lastLatency > 0 && (latency - lastLatency) / lastLatency > LATENCY_THRESHOLD) {
+				direction = -1;
+			}
+		}
+
+		lastThroughput = throughput;
+		lastLatency = latency;
+
+		int target = Math.max(minWorkers, Math.min(maxWorkers, getActiveWorkers() + direction * step));
+		if (target == minWorkers || target == maxWorkers)
+			step = minStep;
+
+		setActiveWorkers(target);
+	}
+
+	/**
+	 * Grow or shrink the worker count to target. New workers are submitted right away,
+	 * extra workers retire once they finish their current block.
+	 * @param target
+	 */
+	private synchronized void setActiveWorkers(int target) {
+		if (stopped)
+			return;
+		
+		int diff = target - activeWorkers;
+
+		if (diff > 0) {
+			// Cancel pending retirements before starting new workers
+			int cancelled = Math.min(diff, retireRequests.getAndUpdate(n -> Math.max(0, n - diff)));
+			for (int i = cancelled; i < diff; i++) {
+				workerFutures.add(threadPool.submit(new HttpGetBlockProcessor(workQueue, progress, 1, this, bodyProcessing)));
+			}
+		} else if (diff < 0) {
+			retireRequests.addAndGet(-diff);
+		}
+
+		activeWorkers = target;
+		HttpClientManager.getInstance().tune(target);
+	}
+
+	/**
+	 * @return CPU load of this process between 0 and 1, or system load average per core
+	 * if the JVM does not expose process CPU load.
+	 */
+	private double getCpuLoad() {
+		if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+			double load = ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuLoad();
+			if (load >= 0)
+				return load;
+		}
+		return osBean.getSystemLoadAverage() / osBean.getAvailableProcessors();
+	}
+
+	/**
+	 * Wait for all workers, including those started while waiting, to complete.
+	 */
+	public void awaitWorkers() {
+		for (int i = 0; i < workerFutures.size(); i++) {
+			try {
+				workerFutures.get(i).get();
+			} catch (InterruptedException | ExecutionException e) {
+				System.out.println("ERROR IN A THREAD");
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
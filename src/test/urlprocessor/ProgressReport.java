@@ -12,6 +12,8 @@ public class ProgressReport {
 	ReentrantLock lock;
 	private int failure;
 	private int success;
+	private int skipped;
+	private long latency;
 	private boolean[] complete;
 	
 	/**
@@ -21,6 +23,8 @@ public class ProgressReport {
 	public ProgressReport(int numberOfSteps) {
 		failure = 0;
 		success = 0;
+		skipped = 0;
+		latency = 0;
 		complete = new boolean[numberOfSteps];
 		lock = new ReentrantLock();
 	}
@@ -32,17 +36,65 @@ public class ProgressReport {
 	 * @param failure Number of failed lines
 	 */
 	public void add(int success, int failure){
+		add(success, failure, 0);
+	}
+	
+	/**
+	 * Add to existing total counts of success and failure along with the time spent on them.
+	 * 
+	 * @param success Number of successful lines
+	 * @param failure Number of failed lines
+	 * @param latency Total time in milliseconds spent on these lines
+	 */
+	public void add(int success, int failure, long latency){
 		lock.lock();
 		this.success += success;
 		this.failure += failure;
+		this.latency += latency;
+		lock.unlock();
+	}
+	
+	/**
+	 * Add to existing total count of lines skipped without processing.
+	 * 
+	 * @param skipped Number of skipped lines
+	 */
+	public void addSkipped(int skipped){
+		lock.lock();
+		this.skipped += skipped;
 		lock.unlock();
 	}
 	
+	/**
+	 * @return Total number of lines processed so far
+	 */
+	public int getTotal() {
+		lock.lock();
+		try {
+			return success + failure;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return Total time in milliseconds spent on processed lines
+	 */
+	public long getLatency() {
+		lock.lock();
+		try {
+			return latency;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
 	/**
 	 * Print current total of successes and failures
 	 */
 	public void printStatus() {
-		System.out.println("TOTAL: " + (success + failure) + "\t\tSUCCESS: " + success + "\t\tFAILURE: " + failure);
+		System.out.println("TOTAL: " + (success + failure) + "\t\tSUCCESS: " + success + "\t\tFAILURE: " + failure
+				+ (skipped > 0 ? "\t\tSKIPPED: " + skipped : ""));
 	}
 	
 	/**
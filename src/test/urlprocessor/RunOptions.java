@@ -0,0 +1,136 @@
+package test.urlprocessor;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import test.urlprocessor.schedule.Priority;
+import test.urlprocessor.schedule.PriorityClassifier;
+
+/**
+ * Options of a run passed on command line as <i>--name=value</i> after the positional arguments.
+ * <ul>
+ * 	<li><b>--deadline=SECS</b> Run deadline in seconds from start</li>
+ * 	<li><b>--priority=GLOB:CLASS</b> Priority class (high, normal, low) of files whose name matches GLOB. Can be repeated</li>
+ * 	<li><b>--watch</b> Run as daemon watching the directory for new files, until stopped</li>
+ * 	<li><b>--done=DIR</b> Directory processed files are moved to in watch mode. Defaults to <i>done</i> under watched directory</li>
+ * 	<li><b>--body=NAME,...</b> Body processors to run on every response: sha256, xxhash64, size, mime</li>
+ * 	<li><b>--output=FILE</b> File body processor results are written to. Defaults to <i>body_results.tsv</i></li>
+ * 	<li><b>--jfr</b> Emit Flight Recorder events for reader blocks, queue and lock waits, pool tuning, 
+ * 	connection leases and requests. Needs Java 11+</li>
+ * </ul>
+ */
+public class RunOptions {
+
+	private long deadlineSecs;
+	private PriorityClassifier classifier;
+	private boolean watch;
+	private String doneDir;
+	private List<String> bodyProcessors;
+	private String output;
+	private boolean jfr;
+
+	public RunOptions() {
+		classifier = new PriorityClassifier();
+		bodyProcessors = new ArrayList<>();
+		output = "body_results.tsv";
+	}
+
+	/**
+	 * Parse options out of command line arguments.
+	 * @param args Command line arguments
+	 * @param positional List to collect arguments which are not options
+	 * @return
+	 */
+	public static RunOptions parse(String[] args, List<String> positional) {
+		RunOptions options = new RunOptions();
+
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				positional.add(arg);
+				continue;
+			}
+
+			int separator = arg.indexOf('=');
+			String name = separator > 0 ? arg.substring(2, separator) : arg.substring(2);
+			String value = separator > 0 ? arg.substring(separator + 1) : "";
+
+			switch (name) {
+			case "deadline":
+				options.deadlineSecs = Long.parseLong(value);
+				break;
+			case "priority":
+				int classSeparator = value.lastIndexOf(':');
+				Priority priority = classSeparator > 0 ? Priority.parse(value.substring(classSeparator + 1)) : null;
+				if (priority == null)
+					throw new IllegalArgumentException("Invalid priority rule: " + value);
+				options.classifier.addRule(value.substring(0, classSeparator), priority);
+				break;
+			case "watch":
+				options.watch = true;
+				break;
+			case "done":
+				options.doneDir = value;
+				break;
+			case "body":
+				options.bodyProcessors = Arrays.asList(value.split(","));
+				break;
+			case "output":
+				options.output = value;
+				break;
+			case "jfr":
+				options.jfr = true;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		return options;
+	}
+
+	/**
+	 * @return Run deadline in seconds from start, or 0 if there is no deadline
+	 */
+	public long getDeadlineSecs() {
+		return deadlineSecs;
+	}
+
+	public PriorityClassifier getClassifier() {
+		return classifier;
+	}
+
+	/**
+	 * @return true if run should watch the directory for new files
+	 */
+	public boolean isWatch() {
+		return watch;
+	}
+
+	/**
+	 * @param directory Watched directory
+	 * @return Directory processed files are moved to in watch mode
+	 */
+	public File getDoneDir(String directory) {
+		return doneDir != null ? new File(doneDir) : new File(directory, "done");
+	}
+
+	/**
+	 * @return Names of body processors, empty if bodies should be discarded
+	 */
+	public List<String> getBodyProcessors() {
+		return bodyProcessors;
+	}
+
+	public File getOutput() {
+		return new File(output);
+	}
+
+	/**
+	 * @return true if Flight Recorder events should be emitted
+	 */
+	public boolean isJfr() {
+		return jfr;
+	}
+
+}
@@ -1,18 +1,28 @@
 package test.urlprocessor;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 
 import test.urlprocessor.file.AsyncFileReader;
+import test.urlprocessor.file.DirectoryWatcher;
+import test.urlprocessor.file.FileBlock;
 import test.urlprocessor.file.FileManager;
+import test.urlprocessor.file.StreamListener;
+import test.urlprocessor.file.StreamReader;
 import test.urlprocessor.http.HttpClientManager;
-import test.urlprocessor.http.HttpGetBlockProcessor;
+import test.urlprocessor.http.body.BodyProcessing;
+import test.urlprocessor.schedule.WorkScheduler;
+import test.urlprocessor.telemetry.Telemetry;
 
 /**
  * Main class responsible for Driving the URL File processing.
@@ -22,38 +32,94 @@ import test.urlprocessor.http.HttpGetBlockProcessor;
 public class URLFileProcessor {
 
 	private final int NO_OF_IO_TASK_PER_CORE = 50;
+	private final int MIN_IO_TASK_PER_CORE = 5;
+	private final int MAX_IO_TASK_PER_CORE = 250;
 	private final int NO_OF_CORES;
 	private final int NO_OF_BLOCK_IN_QUEUE = 10000;
+	private final int NO_OF_SAMPLE_BLOCK_PER_FILE = 4;
+	private final String STDIN_INPUT = "-";
+	private final String TCP_INPUT = "tcp://";
 	private final String FILE_DIRECTORY;
-	private final BlockingQueue<List<String>> workQueue;
+	private final WorkScheduler workQueue;
 	
 	private ProgressReport progress;
 	private ExecutorService threadPool;
 	private FileManager fileManager;
+	private ConcurrencyController controller;
+	private DirectoryWatcher watcher;
+	private Callable<Boolean> streamReader;
+	private StreamListener listener;
+	private BodyProcessing bodyProcessing;
+	private CountDownLatch finished;
 	
 	/**
-	 * Initialize the Thread pool according to available cores.
+	 * Initialize the Thread pool according to available cores. Thread pool grows with the number of
+	 * Http workers chosen by ConcurrencyController.
 	 * @param cores
 	 * @param directory
+	 * @param options
 	 * @throws Exception
 	 */
-	public URLFileProcessor(int cores, String directory) throws Exception {
+	public URLFileProcessor(int cores, String directory, RunOptions options) throws Exception {
 		
 		NO_OF_CORES = cores;
 		FILE_DIRECTORY = directory;
 		
 		progress = new ProgressReport(2);
-		threadPool = Executors.newFixedThreadPool((NO_OF_CORES * NO_OF_IO_TASK_PER_CORE) + NO_OF_CORES);
+		if (options.isJfr()) {
+			if (!Telemetry.isSupported())
+				System.out.println("FLIGHT RECORDER EVENTS NEED JAVA 11+");
+			Telemetry.setEnabled(true);
+		}
+		threadPool = Executors.newCachedThreadPool();
 
 		HttpClientManager.getInstance().tune(NO_OF_CORES * NO_OF_IO_TASK_PER_CORE);
 		
-		fileManager = new FileManager(FILE_DIRECTORY);
-		workQueue = new LinkedBlockingDeque<>(NO_OF_BLOCK_IN_QUEUE);
+		boolean stream = isStream(FILE_DIRECTORY);
+		if (stream) {
+			fileManager = null;
+		} else if (options.isWatch()) {
+			fileManager = new FileManager(options.getDoneDir(FILE_DIRECTORY), options.getClassifier());
+			watcher = new DirectoryWatcher(new File(FILE_DIRECTORY), fileManager);
+		} else {
+			fileManager = new FileManager(FILE_DIRECTORY, options.getClassifier());
+		}
+		finished = new CountDownLatch(1);
+		long deadline = options.getDeadlineSecs() > 0 ? System.currentTimeMillis() + options.getDeadlineSecs() * 1000 : 0;
+		workQueue = new WorkScheduler(NO_OF_BLOCK_IN_QUEUE, deadline, options.getClassifier(), progress, fileManager);
+		
+		if (STDIN_INPUT.equals(FILE_DIRECTORY)) {
+			streamReader = new StreamReader(System.in, workQueue);
+		} else if (FILE_DIRECTORY.startsWith(TCP_INPUT)) {
+			listener = new StreamListener(StreamListener.parseAddress(FILE_DIRECTORY), workQueue, threadPool);
+			streamReader = listener;
+		} else if (stream) {
+			streamReader = new StreamReader(new FileInputStream(FILE_DIRECTORY), workQueue);
+		}
+		if (!options.getBodyProcessors().isEmpty())
+			bodyProcessing = new BodyProcessing(options.getBodyProcessors(), options.getOutput());
+		controller = new ConcurrencyController(threadPool, workQueue, progress, 
+				NO_OF_CORES * MIN_IO_TASK_PER_CORE, NO_OF_CORES * MAX_IO_TASK_PER_CORE, bodyProcessing);
+		
+	}
+	
+	/**
+	 * Input is streamed instead of read by blocks for stdin, a TCP listener or a named pipe.
+	 * @param input
+	 * @return
+	 */
+	private boolean isStream(String input) {
+		if (STDIN_INPUT.equals(input) || input.startsWith(TCP_INPUT))
+			return true;
 		
+		File file = new File(input);
+		return file.exists() && !file.isDirectory() && !Files.isRegularFile(file.toPath());
 	}
 	
 	/**
 	 * <ol>
+	 * 	<li>Pre-scans sample of files to warm up connections</li>
+	 * 	<li>Starts Directory Watcher thread in watch mode</li>
 	 * 	<li>Starts Progress Tracker thread</li>
 	 * 	<li>Starts File Reader thread</li>
 	 * 	<li>Starts URL Processor thread</li>
@@ -62,36 +128,109 @@ public class URLFileProcessor {
 	 * <ol>
 	 */
 	private void process() {
+		// Shutdown hooks wait on finished, so it must count down even if the run fails
+		try {
+			long startTime = System.currentTimeMillis();
+			preScan();
+			startDirectoryWatcher();
+			startProgressTracker();
+			List<Future<Boolean>> fileReadFutures = startFileReaderThreads();
+			startProcessorThreads();
 		
-		long startTime = System.currentTimeMillis();
-		startProgressTracker();
-		List<Future<Boolean>> fileReadFutures = startFileReaderThreads();
-		List<Future<Boolean>> urlReadFutures = startProcessorThreads();
-		
-		waitForFileReaderThreadsToComplete(fileReadFutures);
-		waitForProcessorThreadsToComplete(urlReadFutures);
+			waitForFileReaderThreadsToComplete(fileReadFutures);
+			waitForProcessorThreadsToComplete();
 		
-		long endTime = System.currentTimeMillis();
+			long endTime = System.currentTimeMillis();
 		
-		progress.printStatus();
-		System.out.println();
-		System.out.println("TIME TAKEN: " + ((endTime - startTime) / 1000 ) + " secs");
+			progress.printStatus();
+			HttpClientManager.getInstance().getCircuitBreaker().printStatus();
+			HttpClientManager.getInstance().printConnectionStats();
+			System.out.println();
+			System.out.println("TIME TAKEN: " + ((endTime - startTime) / 1000 ) + " secs");
 		
-		threadPool.shutdown();
+			threadPool.shutdown();
+			try {
+				threadPool.awaitTermination(1, TimeUnit.HOURS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			HttpClientManager.getInstance().close();
+		} finally {
+			finished.countDown();
+		}
+	}
+	
+	/**
+	 * Wait until process is finished. Used by shutdown hooks so that the run summary is printed.
+	 */
+	private void awaitFinish() {
 		try {
-			threadPool.awaitTermination(1, TimeUnit.HOURS);
+			finished.await();
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * In watch mode, submits the Directory Watcher thread. Connection pools, DNS cache and host stats
+	 * stay warm across drops of files as the process keeps running. On shutdown (e.g. Ctrl+C) the
+	 * watcher stops, files already picked up are finished and the run summary is printed.
+	 */
+	private void startDirectoryWatcher() {
+		if (watcher == null)
+			return;
+		
+		threadPool.submit(watcher);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			watcher.stop();
+			fileManager.close();
+			awaitFinish();
+		}));
+		System.out.println("WATCHING " + FILE_DIRECTORY);
+	}
+	
+	/**
+	 * Reads a few sample blocks of every file to estimate host distribution, so that route
+	 * limits are set and connections to heaviest hosts are open before the run starts.
+	 */
+	private void preScan() {
+		if (fileManager == null)
+			return;
+		
+		AsyncFileReader sampler = new AsyncFileReader(fileManager, workQueue);
+		List<String> urls = new ArrayList<>();
+		for (FileBlock fileBlock : fileManager.getSampleBlocks(NO_OF_SAMPLE_BLOCK_PER_FILE)) {
+			try {
+				List<String> lines = sampler.readSample(fileBlock);
+				if (lines != null)
+					urls.addAll(lines);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		System.out.println("PRE-SCAN SAMPLED " + urls.size() + " URLS");
+		HttpClientManager.getInstance().warmUp(urls, threadPool);
+	}
+	
 	/**
 	 * Add File Reader worker thread to the thread pool. As the are fast processing thread, we use
-	 * all the cores.
+	 * all the cores. A streamed input is read by a single reader, or a reader per connection for
+	 * a TCP listener which listens until shutdown.
 	 * @return
 	 */
 	private List<Future<Boolean>> startFileReaderThreads() {
 		List<Future<Boolean>> fileReadFutures = new ArrayList<>();
+		if (streamReader != null) {
+			fileReadFutures.add(threadPool.submit(streamReader));
+			if (listener != null)
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					listener.stop();
+					awaitFinish();
+				}));
+			return fileReadFutures;
+		}
+		
 		for (int i = 0; i < NO_OF_CORES; i++) {
 			fileReadFutures.add(threadPool.submit(new AsyncFileReader(fileManager, workQueue)));
 		}
@@ -114,28 +253,21 @@ public class URLFileProcessor {
 
 	/**
 	 * Add Http Get Processor threads to the thread pool. As the are IO intensize thread and spend lot of time waiting,
-	 *  we use multiple of available cores.
-	 * @return
+	 *  we start with multiple of available cores and let ConcurrencyController grow or shrink them.
 	 */
-	private List<Future<Boolean>> startProcessorThreads() {
-		List<Future<Boolean>> urlReadFutures = new ArrayList<>();
-		for (int i = 0; i < NO_OF_CORES * NO_OF_IO_TASK_PER_CORE; i++) {
-			urlReadFutures.add(threadPool.submit(new HttpGetBlockProcessor(workQueue, progress, 1)));
-		}
-
-		return urlReadFutures;
+	private void startProcessorThreads() {
+		controller.start(NO_OF_CORES * NO_OF_IO_TASK_PER_CORE);
+		threadPool.submit(controller);
 	}
 
-	private void waitForProcessorThreadsToComplete(List<Future<Boolean>> urlReadFutures) {
-		for (Future<Boolean> future : urlReadFutures) {
-			try{
-				future.get();
-			} catch (InterruptedException | ExecutionException e) {
-				System.out.println("ERROR IN A THREAD");
-				e.printStackTrace();
-			}
-		}
+	private void waitForProcessorThreadsToComplete() {
+		controller.awaitWorkers();
+		// No more workers are started once controller is stopped, wait for ones started meanwhile
+		controller.stop();
+		controller.awaitWorkers();
 		progress.markComplete(1);
+		if (bodyProcessing != null)
+			bodyProcessing.close();
 
 	}
 	
@@ -149,6 +281,8 @@ public class URLFileProcessor {
 			public void run() {
 				while (!progress.isStepComplete(1)) {
 					progress.printStatus();
+					HttpClientManager.getInstance().getCircuitBreaker().printStatus();
+					HttpClientManager.getInstance().printConnectionStats();
 					try { Thread.sleep(5 * 1000); } catch (InterruptedException e) { e.printStackTrace(); }
 				}
 			}
@@ -158,15 +292,17 @@ public class URLFileProcessor {
 	public static void main(String[] args) throws Exception {
 		int cores;
 		String dir;
-		if (args.length == 2) {
-			cores = Integer.parseInt(args[0]);
-			dir = args[1];
+		List<String> positional = new ArrayList<>();
+		RunOptions options = RunOptions.parse(args, positional);
+		if (positional.size() == 2) {
+			cores = Integer.parseInt(positional.get(0));
+			dir = positional.get(1);
 		} else {
 			cores = Runtime.getRuntime().availableProcessors();
 			dir = "inputData.zip";
 		}
 		
-		URLFileProcessor fileProcessor = new URLFileProcessor(cores, dir);
+		URLFileProcessor fileProcessor = new URLFileProcessor(cores, dir, options);
 		fileProcessor.process();
 	}
 	
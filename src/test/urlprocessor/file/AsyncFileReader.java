@@ -5,44 +5,65 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.zip.Inflater;
+
+import test.urlprocessor.schedule.WorkScheduler;
+import test.urlprocessor.telemetry.Telemetry;
+import test.urlprocessor.utility.BgzfFile;
 
 /**
  * This worker thread is responsible to read lines from files and add work block to the 
- * Blocking Queue.
+ * WorkScheduler.
  * @author prathameshjagtap
  *
  */
 public class AsyncFileReader implements Callable<Boolean>{
 
 	FileManager fileManager;
-	BlockingQueue<List<String>> workQueue;
+	WorkScheduler workQueue;
 	
-	private final int BATCH_SIZE = 10000;
+	static final int BATCH_SIZE = 10000;
 	byte[] contents;
 	byte[] residue;
+	
+	byte[] compressed;
+	byte[] inflated;
+	Inflater inflater;
 
 	
-	public AsyncFileReader(FileManager fileManager, BlockingQueue<List<String>> workQueue) {
+	public AsyncFileReader(FileManager fileManager, WorkScheduler workQueue) {
 		this.fileManager = fileManager;
 		this.workQueue = workQueue;
 		this.contents = new byte[BATCH_SIZE];
 		this.residue = new byte[4096];
 	}
+	
+	private void initCompressedBuffers() {
+		if (inflater == null) {
+			compressed = new byte[BgzfFile.MAX_BLOCK_SIZE];
+			inflated = new byte[BgzfFile.MAX_BLOCK_SIZE * 8];
+			inflater = new Inflater(true);
+		}
+	}
 
 	@Override
 	public Boolean call() throws Exception {
 
-		while(fileManager.hasFile()) {
-			readFileBlock();
+		try {
+			while(fileManager.hasFile()) {
+				readFileBlock();
+			}
+		} finally {
+			if (inflater != null)
+				inflater.end();
 		}
 
 		return true;
 	}
 
 	/**
-	 * Read block from the fileBlock and performed adding URLs to a Blocking Queue
+	 * Read block from the fileBlock and performed adding URLs to the WorkScheduler
 	 */
 	private void readFileBlock() {
 
@@ -57,13 +78,48 @@ public class AsyncFileReader implements Callable<Boolean>{
 				throw e;
 		}
 		
+		try {
+			Object blockRead = Telemetry.beginBlockRead();
+			List<String> lines = readLines(fileBlock, true);
+			Telemetry.endBlockRead(blockRead, fileBlock.getFile(), fileBlock.getBlockNumber(), lines == null ? 0 : lines.size());
+			if(lines != null)
+				workQueue.put(lines, fileBlock.getFile());
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			fileManager.release(fileBlock.getFile());
+		}
+	}
+	
+	/**
+	 * Read lines of a block without handing them to the WorkScheduler and without marking
+	 * the file complete. Used to sample files ahead of the run.
+	 * @param fileBlock
+	 * @return Lines of the block, or null if block is past end of file
+	 * @throws IOException
+	 */
+	public List<String> readSample(FileBlock fileBlock) throws IOException {
+		return readLines(fileBlock, false);
+	}
+	
+	/**
+	 * Read all complete lines starting in the block
+	 * @param fileBlock
+	 * @param markComplete Mark file complete in FileManager when end of file is reached
+	 * @return Lines of the block, or null if block is past end of file
+	 * @throws IOException
+	 */
+	private List<String> readLines(FileBlock fileBlock, boolean markComplete) throws IOException {
+		if (fileBlock instanceof CompressedFileBlock)
+			return readCompressedFileBlock((CompressedFileBlock) fileBlock);
+		
 		File file = fileBlock.getFile();
 		
 		try(RandomAccessFile reader = new RandomAccessFile(file, "r")) {
 			
-			String content = getMainContent(fileBlock, reader);
+			String content = getMainContent(fileBlock, reader, markComplete);
 			if(content == null)
-				return;
+				return null;
 			
 			StringTokenizer tokenizer = new StringTokenizer(content, "\n");
 			skipFirstLineIfNotCompleteLine(fileBlock, reader, tokenizer);
@@ -75,10 +131,7 @@ public class AsyncFileReader implements Callable<Boolean>{
 			
 			updateLastLineIfNotCompleteLine(lines, fileBlock, reader, content.length());
 				
-			workQueue.put(lines);
-			
-		} catch (Exception e) {
-			e.printStackTrace();
+			return lines;
 		}
 	}
 	
@@ -87,15 +140,18 @@ public class AsyncFileReader implements Callable<Boolean>{
 	 * Read the whole batch content using Random Access Reader
 	 * @param fileBlock
 	 * @param reader
+	 * @param markComplete Mark file complete in FileManager when end of file is reached
 	 * @return
 	 * @throws IOException
 	 */
-	private String getMainContent(FileBlock fileBlock, RandomAccessFile reader) throws IOException{
-		reader.seek(fileBlock.getBlockNumber() * BATCH_SIZE);
+	private String getMainContent(FileBlock fileBlock, RandomAccessFile reader, boolean markComplete) throws IOException{
+		reader.seek(fileBlock.getOffset());
 		
-		int dataRead = reader.read(contents, 0, BATCH_SIZE);
+		int length = (int) Math.max(0, Math.min(BATCH_SIZE, fileBlock.getLimit() - fileBlock.getOffset()));
+		int dataRead = length == 0 ? -1 : reader.read(contents, 0, length);
 		if(dataRead != BATCH_SIZE) {
-			fileManager.markComplete(fileBlock.getFile());
+			if(markComplete)
+				fileManager.markComplete(fileBlock.getFile());
 			if(dataRead == -1)
 				return null;
 		}
@@ -109,8 +165,8 @@ public class AsyncFileReader implements Callable<Boolean>{
 	 * <b>updateLastLineIfNotCompleteLine</b>
 	 */
 	private void skipFirstLineIfNotCompleteLine(FileBlock fileBlock, RandomAccessFile reader, StringTokenizer tokenizer) throws IOException {
-		if(fileBlock.getBlockNumber() > 0){
-			reader.seek(fileBlock.getBlockNumber() * BATCH_SIZE - 1);
+		if(fileBlock.getOffset() > 0){
+			reader.seek(fileBlock.getOffset() - 1);
 			char prevBlockLastChar = (char)reader.read();
 			char currentBlockFirstChar = (char)reader.read();
 			if( '\n' != prevBlockLastChar && '\n' != currentBlockFirstChar){
@@ -128,15 +184,82 @@ public class AsyncFileReader implements Callable<Boolean>{
 	 */
 	private void updateLastLineIfNotCompleteLine(List<String> lines, FileBlock fileBlock, RandomAccessFile reader, 
 			int contentLength) throws IOException {
-		reader.seek(fileBlock.getBlockNumber() * BATCH_SIZE + contentLength - 1);
+		reader.seek(fileBlock.getOffset() + contentLength - 1);
 		if((char)reader.read() != '\n') {
-			reader.seek((fileBlock.getBlockNumber() + 1) * BATCH_SIZE);
+			reader.seek(fileBlock.getOffset() + contentLength);
 			int dataRead = reader.read(residue, 0, residue.length);
-			if(dataRead != -1) {
+			if(dataRead != -1 && !lines.isEmpty()) {
 				String residueStr = new String(residue, 0, dataRead).split("\n")[0];
 				if(residueStr.trim().length() > 0)
 					lines.set(lines.size() - 1, lines.get(lines.size() - 1) + residueStr);
 			}
 		}
 	}
+
+	/**
+	 * Inflate the compressed members of the block and return its URLs.
+	 * A line belongs to the block it starts in. So the line running in from previous member is
+	 * skipped, and the last line is completed by inflating following members.
+	 * @param fileBlock
+	 * @return
+	 * @throws IOException
+	 */
+	private List<String> readCompressedFileBlock(CompressedFileBlock fileBlock) throws IOException {
+		initCompressedBuffers();
+		List<Long> offsets = fileBlock.getMemberOffsets();
+		
+		try(RandomAccessFile reader = new RandomAccessFile(fileBlock.getFile(), "r")) {
+			
+			boolean startsWithNewLine = true;
+			if (fileBlock.getFirstMember() > 0) {
+				int length = BgzfFile.inflateBlock(reader, offsets.get(fileBlock.getFirstMember() - 1), compressed, 
+						inflated, 0, inflater);
+				startsWithNewLine = length == 0 || inflated[length - 1] == '\n';
+			}
+			
+			int length = 0;
+			for (int i = fileBlock.getFirstMember(); i <= fileBlock.getLastMember(); i++) {
+				ensureInflatedCapacity(length);
+				length += BgzfFile.inflateBlock(reader, offsets.get(i), compressed, inflated, length, inflater);
+			}
+			
+			int start = 0;
+			if (!startsWithNewLine) {
+				while (start < length && inflated[start] != '\n')
+					start++;
+			}
+			if (start == length)
+				return new ArrayList<>();
+			
+			int end = length;
+			for (int i = fileBlock.getLastMember() + 1; i < offsets.size() && inflated[end - 1] != '\n'; i++) {
+				ensureInflatedCapacity(end);
+				int read = BgzfFile.inflateBlock(reader, offsets.get(i), compressed, inflated, end, inflater);
+				int newLine = end;
+				while (newLine < end + read && inflated[newLine] != '\n')
+					newLine++;
+				end = newLine < end + read ? newLine + 1 : end + read;
+			}
+			
+			StringTokenizer tokenizer = new StringTokenizer(new String(inflated, start, end - start), "\n");
+			List<String> lines = new ArrayList<>();
+			while(tokenizer.hasMoreTokens()){
+				lines.add(tokenizer.nextToken());
+			}
+			
+			return lines;
+		}
+	}
+	
+	/**
+	 * Grow inflated buffer so that a full member can be inflated at given offset
+	 * @param offset
+	 */
+	private void ensureInflatedCapacity(int offset) {
+		if (offset + BgzfFile.MAX_BLOCK_SIZE > inflated.length) {
+			byte[] grown = new byte[Math.max(inflated.length * 2, offset + BgzfFile.MAX_BLOCK_SIZE)];
+			System.arraycopy(inflated, 0, grown, 0, offset);
+			inflated = grown;
+		}
+	}
 }
@@ -0,0 +1,42 @@
+package test.urlprocessor.file;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Represents a File Block of a BGZF compressed file. The block is a range of 
+ * consecutive compressed members which can be inflated independently of other blocks.
+ */
+public class CompressedFileBlock extends FileBlock {
+
+	private List<Long> memberOffsets;
+	private int firstMember;
+	private int lastMember;
+	
+	/**
+	 * @param file BGZF file
+	 * @param blockNumber Block number in the file
+	 * @param memberOffsets Offsets of all members in the file
+	 * @param firstMember Index of first member in this block
+	 * @param lastMember Index of last member in this block, inclusive
+	 */
+	public CompressedFileBlock(File file, int blockNumber, List<Long> memberOffsets, int firstMember, int lastMember) {
+		super(file, blockNumber);
+		this.memberOffsets = memberOffsets;
+		this.firstMember = firstMember;
+		this.lastMember = lastMember;
+	}
+	
+	public List<Long> getMemberOffsets() {
+		return memberOffsets;
+	}
+	
+	public int getFirstMember() {
+		return firstMember;
+	}
+	
+	public int getLastMember() {
+		return lastMember;
+	}
+	
+}
@@ -0,0 +1,138 @@
+package test.urlprocessor.file;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import test.urlprocessor.utility.BgzfFile;
+
+/**
+ * Watches an inbox directory and feeds files into FileManager as they arrive. A file is
+ * fed once its size has not changed for <b>SETTLE_MILLIS</b>, so a file still being written or
+ * appended to is not read half way. Files already in the inbox at start are fed the same way.
+ * Files being processed are still watched, FileManager reads what is appended to them before 
+ * moving them to done.
+ */
+public class DirectoryWatcher implements Runnable {
+
+	private final long SETTLE_MILLIS = 2000;
+	private final long POLL_MILLIS = 500;
+
+	private File inbox;
+	private FileManager fileManager;
+	private Map<File, Long> sizes;
+	private Map<File, Long> lastChanged;
+	private volatile boolean stopped;
+
+	/**
+	 * @param inbox Directory to watch
+	 * @param fileManager FileManager in incremental mode
+	 */
+	public DirectoryWatcher(File inbox, FileManager fileManager) {
+		if (!inbox.isDirectory())
+			throw new RuntimeException("Invalid directory");
+
+		this.inbox = inbox;
+		this.fileManager = fileManager;
+		this.sizes = new HashMap<>();
+		this.lastChanged = new HashMap<>();
+	}
+
+	public void stop() {
+		stopped = true;
+	}
+
+	@Override
+	public void run() {
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			inbox.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+
+			for (File file : inbox.listFiles())
+				touch(file);
+
+			while (!stopped) {
+				WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							for (File file : inbox.listFiles())
+								touch(file);
+						} else {
+							touch(inbox.toPath().resolve((Path) event.context()).toFile());
+						}
+					}
+					key.reset();
+				}
+
+				feedSettledFiles();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Note a file has arrived or changed.
+	 * @param file
+	 */
+	private void touch(File file) {
+		if (!file.isFile() || BgzfFile.isIndex(file))
+			return;
+
+		Long size = sizes.get(file);
+		if (size == null || size != file.length()) {
+			sizes.put(file, file.length());
+			lastChanged.put(file, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Feed files whose size is unchanged for SETTLE_MILLIS into FileManager
+	 */
+	private void feedSettledFiles() {
+		long now = System.currentTimeMillis();
+
+		Iterator<Map.Entry<File, Long>> iterator = lastChanged.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<File, Long> entry = iterator.next();
+			File file = entry.getKey();
+
+			if (!file.isFile()) {
+				iterator.remove();
+				sizes.remove(file);
+				continue;
+			}
+
+			// Modify events are not guaranteed for every write, check size again before feeding
+			if (sizes.get(file) != file.length()) {
+				sizes.put(file, file.length());
+				entry.setValue(now);
+				continue;
+			}
+
+			// Appended content of a file in process is read by FileManager, keep watching until it is moved
+			if (fileManager.isTracked(file)) {
+				entry.setValue(now);
+				continue;
+			}
+
+			if (now - entry.getValue() >= SETTLE_MILLIS) {
+				iterator.remove();
+				sizes.remove(file);
+				fileManager.addFile(file);
+			}
+		}
+	}
+
+}
@@ -4,6 +4,7 @@ import java.io.File;
 
 /**
  * Represents a File Block. It is combination of File and the Block of content in the file.
+ * Content of the block starts at <b>offset</b>, and is read no further than <b>limit</b>.
  * @author prathameshjagtap
  *
  */
@@ -11,11 +12,25 @@ public class FileBlock {
 
 	private File file;
 	private int blockNumber;
+	private long offset;
+	private long limit;
 	
 	public FileBlock(File file, int blockNumber) {
+		this(file, blockNumber, (long) blockNumber * AsyncFileReader.BATCH_SIZE, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * @param file
+	 * @param blockNumber
+	 * @param offset Offset of the block in file
+	 * @param limit Length of file to read up to
+	 */
+	public FileBlock(File file, int blockNumber, long offset, long limit) {
 		super();
 		this.file = file;
 		this.blockNumber = blockNumber;
+		this.offset = offset;
+		this.limit = limit;
 	}
 	
 	public File getFile() {
@@ -34,4 +49,12 @@ public class FileBlock {
 		this.blockNumber = blockNumber;
 	}
 	
+	public long getOffset() {
+		return offset;
+	}
+	
+	public long getLimit() {
+		return limit;
+	}
+	
 }
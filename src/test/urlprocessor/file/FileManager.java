@@ -1,10 +1,22 @@
 package test.urlprocessor.file;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+import test.urlprocessor.schedule.Priority;
+import test.urlprocessor.schedule.PriorityClassifier;
+import test.urlprocessor.telemetry.Telemetry;
+import test.urlprocessor.utility.BgzfFile;
 import test.urlprocessor.utility.UnzipFile;
 
 /**
@@ -12,22 +24,77 @@ import test.urlprocessor.utility.UnzipFile;
  * Currently it is using simple algorithm to allot a block to client
  * every time getFileBlock is called. Also manages if the files are processed
  * and are ready to mark for completion.
+ * BGZF compressed files are not inflated upfront. Their blocks are ranges of compressed
+ * members so that several readers can inflate one file in parallel.
+ * <br/>
+ * In incremental mode files are added while the run is going on, and every file is moved to 
+ * a done directory once all of its URLs are processed. Blocks in flight are counted per file with 
+ * <b>retain</b> and <b>release</b> to know when a file is processed. A file is read up to the length
+ * it had when added. If it has grown by the time it is processed, the appended part is read as a new 
+ * segment before the file is moved.
+ * <br/>
+ * Files are handed out in order of the priority class their name matches, so that readers feed 
+ * higher class work first however large lower class files are.
  * @author prathameshjagtap
  *
  */
 public class FileManager {
 
+	private final int MEMBERS_PER_BLOCK = 4;
+	
+	private final long FILE_WAIT_MILLIS = 1000;
+	
 	private ReentrantLock lock;	
+	private Condition fileAdded;
 	private Map<File, Integer> files;
+	private Map<Priority, LinkedHashSet<File>> queues;
+	private Map<File, Segment> segments;
+	private Map<File, Integer> inFlight;
+	private File doneDir;
+	private PriorityClassifier classifier;
+	private volatile boolean open;
+	
+	private FileManager(PriorityClassifier classifier) {
+		lock = new ReentrantLock();
+		fileAdded = lock.newCondition();
+		files = new HashMap<>();
+		queues = new EnumMap<>(Priority.class);
+		for (Priority priority : Priority.values())
+			queues.put(priority, new LinkedHashSet<>());
+		segments = new HashMap<>();
+		this.classifier = classifier;
+		inFlight = new HashMap<>();
+	}
+	
+	/**
+	 * Instantiates FileManager in incremental mode. Files are added with addFile until close is called.
+	 * @param doneDir Directory to move processed files to
+	 * @param classifier Priority classifier whose file name rules order files
+	 */
+	public FileManager(File doneDir, PriorityClassifier classifier) {
+		this(classifier);
+		
+		if (!doneDir.isDirectory() && !doneDir.mkdirs())
+			throw new RuntimeException("Invalid directory");
+		this.doneDir = doneDir;
+		this.open = true;
+	}
 	
 	/**
 	 * Instantiates FileManager for a directory
 	 * @param dirName Directory name
 	 */
 	public FileManager(String dirName) {
-		
-		lock = new ReentrantLock();
-		files = new HashMap<>();
+		this(dirName, new PriorityClassifier());
+	}
+	
+	/**
+	 * Instantiates FileManager for a directory
+	 * @param dirName Directory name
+	 * @param classifier Priority classifier whose file name rules order files
+	 */
+	public FileManager(String dirName, PriorityClassifier classifier) {
+		this(classifier);
 		
 		File dir = new File(dirName);
 		if(dir.exists()){
@@ -37,8 +104,16 @@ public class FileManager {
 					File inputDir = new File("work_area/inputData");
 					File destDir = new File("work_area");
 					for (File file : inputDir.listFiles()) {
-						UnzipFile.unGzip(file, destDir);
-						file.delete();
+						if (BgzfFile.isIndex(file))
+							continue;
+						if (BgzfFile.isBgzf(file)) {
+							// Keep BGZF files compressed, readers inflate their blocks in parallel
+							BgzfFile.getIndex(file).renameTo(BgzfFile.getIndex(new File(destDir, file.getName())));
+							file.renameTo(new File(destDir, file.getName()));
+						} else {
+							UnzipFile.unGzip(file, destDir);
+							file.delete();
+						}
 					}
 					dir = destDir;
 				} catch (IOException e) {
@@ -48,8 +123,8 @@ public class FileManager {
 			}
 			
 			for(File file: dir.listFiles()){
-				if(file.isFile())
-					files.put(file, 0);
+				if(file.isFile() && !BgzfFile.isIndex(file))
+					addFile(file);
 			}
 
 		} else {
@@ -57,35 +132,333 @@ public class FileManager {
 		}
 	}
 	
+	/**
+	 * Register a file for processing. BGZF files are indexed by their members.
+	 * A file already tracked is ignored, its appended content is read when its blocks are released.
+	 * @param file
+	 */
+	public void addFile(File file) {
+		List<Long> offsets = null;
+		if (BgzfFile.isBgzf(file)) {
+			try {
+				offsets = BgzfFile.getBlockOffsets(file);
+				if (offsets.isEmpty())
+					return;
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new RuntimeException("Error processing file", e);
+			}
+		}
+		
+		lock.lock();
+		try {
+			if (segments.containsKey(file))
+				return;
+			segments.put(file, new Segment(0, file.length(), offsets, classifier.getPriority(file)));
+			queue(file);
+			fileAdded.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @param file
+	 * @return true if file is being read or its URLs are being processed
+	 */
+	public boolean isTracked(File file) {
+		lock.lock();
+		try {
+			return segments.containsKey(file) || files.containsKey(file) || inFlight.containsKey(file);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Stop accepting files in incremental mode. Readers finish once remaining files are read.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			open = false;
+			fileAdded.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
 	public FileBlock getFileBlock(){
 		File file;
 		int block;
+		Segment segment;
 		
+		Object lockWait = Telemetry.beginLockWait();
 		lock.lock();
+		Telemetry.endLockWait(lockWait, "FileManager");
 		try{
+			if(files.size() == 0 && isExpectingFiles())
+				fileAdded.await(FILE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
 			if(files.size() == 0)
 				throw new RuntimeException("No more files");
 
-			file = files.keySet().iterator().next();
-			file.length();
+			file = nextFile();
 			block = files.get(file);
-			files.put(file, block + 1);
+			inFlight.merge(file, 1, Integer::sum);
+			
+			segment = segments.get(file);
+			// Number of blocks is known upfront, complete the file once its last block is allotted
+			if(block + 1 >= getNumberOfBlocks(segment))
+				dequeue(file);
+			else
+				files.put(file, block + 1);
+			
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			lock.unlock();
+		}
+		
+		return newFileBlock(file, block, segment);
+	}
+	
+	/**
+	 * Queue a file to be read from its first block. Must be called holding lock.
+	 * @param file
+	 */
+	private void queue(File file) {
+		files.put(file, 0);
+		queues.get(segments.get(file).priority).add(file);
+	}
+	
+	/**
+	 * Remove a file from queue once all of its blocks are allotted. Must be called holding lock.
+	 * @param file
+	 */
+	private void dequeue(File file) {
+		if (files.remove(file) != null)
+			queues.get(segments.get(file).priority).remove(file);
+	}
+	
+	/**
+	 * Earliest added file of highest priority class. Must be called holding lock.
+	 * @return
+	 */
+	private File nextFile() {
+		for (Priority priority : Priority.values()) {
+			LinkedHashSet<File> queue = queues.get(priority);
+			if (!queue.isEmpty())
+				return queue.iterator().next();
+		}
+		return null;
+	}
+	
+	/**
+	 * Count more blocks of a file in flight. Every block handed out by getFileBlock is already
+	 * counted and must be released once its lines are handed over.
+	 * @param file
+	 * @param blocks
+	 */
+	public void retain(File file, int blocks) {
+		lock.lock();
+		inFlight.merge(file, blocks, Integer::sum);
+		lock.unlock();
+	}
+	
+	/**
+	 * Release a block of a file in flight. When file is fully read and has no blocks in flight,
+	 * it is processed and is moved to done directory in incremental mode.
+	 * @param file
+	 */
+	public void release(File file) {
+		boolean processed;
+		
+		lock.lock();
+		try {
+			Integer count = inFlight.get(file);
+			if (count == null)
+				return;
+			
+			if (count > 1) {
+				inFlight.put(file, count - 1);
+				return;
+			}
 			
+			inFlight.remove(file);
+			processed = !files.containsKey(file);
+			fileAdded.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		
+		if (!processed || doneDir == null || resume(file))
+			return;
+		
+		moveToDone(file);
+		lock.lock();
+		segments.remove(file);
+		lock.unlock();
+	}
+	
+	/**
+	 * Queue the content appended to a processed file since it was added, as a new segment.
+	 * Appended BGZF members are found by walking the member headers again, so they are only 
+	 * picked up when there is no <i>.gzi</i> index or the index is updated too.
+	 * @param file
+	 * @return true if file has grown and is queued again
+	 */
+	private boolean resume(File file) {
+		lock.lock();
+		Segment segment = segments.get(file);
+		lock.unlock();
+		
+		long length = file.length();
+		if (segment == null || length <= segment.limit)
+			return false;
+		
+		Segment next = new Segment(segment.limit, length, null, segment.priority);
+		if (segment.offsets != null) {
+			try {
+				List<Long> offsets = BgzfFile.getBlockOffsets(file);
+				if (offsets.size() <= segment.offsets.size())
+					return false;
+				next = new Segment(segment.offsets.size(), length, offsets, segment.priority);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		
+		lock.lock();
+		try {
+			segments.put(file, next);
+			queue(file);
+			fileAdded.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		System.out.println("FILE GREW: " + file.getName());
+		return true;
+	}
+	
+	/**
+	 * In incremental mode readers wait for files until closed, and after that until blocks 
+	 * in flight are processed, as a file that has grown meanwhile is queued again. Must be called holding lock.
+	 * @return
+	 */
+	private boolean isExpectingFiles() {
+		return open || (doneDir != null && !inFlight.isEmpty());
+	}
+	
+	private void moveToDone(File file) {
+		try {
+			File index = BgzfFile.getIndex(file);
+			if (index.isFile())
+				Files.move(index.toPath(), new File(doneDir, index.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(file.toPath(), new File(doneDir, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			System.out.println("FILE PROCESSED: " + file.getName());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private FileBlock newFileBlock(File file, int block, Segment segment) {
+		if(segment.offsets != null) {
+			int firstMember = (int) segment.start + block * MEMBERS_PER_BLOCK;
+			int lastMember = Math.min(firstMember + MEMBERS_PER_BLOCK, segment.offsets.size()) - 1;
+			return new CompressedFileBlock(file, block, segment.offsets, firstMember, lastMember);
+		}
+				
+		return new FileBlock(file, block, segment.start + (long) block * AsyncFileReader.BATCH_SIZE, segment.limit);
+	}
+	
+	private long getNumberOfBlocks(Segment segment) {
+		return segment.offsets != null 
+				? (segment.offsets.size() - segment.start + MEMBERS_PER_BLOCK - 1) / MEMBERS_PER_BLOCK
+				: (segment.limit - segment.start + AsyncFileReader.BATCH_SIZE - 1) / AsyncFileReader.BATCH_SIZE;
+	}
+	
+	/**
+	 * @return Number of blocks not allotted yet, per priority class of files indexed by Priority ordinal
+	 */
+	public long[] getRemainingBlocks() {
+		long[] remaining = new long[Priority.values().length];
+		
+		lock.lock();
+		try {
+			for (Map.Entry<File, Integer> file : files.entrySet()) {
+				Segment segment = segments.get(file.getKey());
+				remaining[segment.priority.ordinal()] += Math.max(0, getNumberOfBlocks(segment) - file.getValue());
+			}
 		} finally {
 			lock.unlock();
 		}
+		
+		return remaining;
+	}
+	
+	/**
+	 * Pick evenly spaced blocks of every file for sampling. Picked blocks are not allotted, 
+	 * they will be handed out by getFileBlock as usual.
+	 * @param blocksPerFile Maximum number of blocks to pick per file
+	 * @return
+	 */
+	public List<FileBlock> getSampleBlocks(int blocksPerFile) {
+		List<FileBlock> blocks = new ArrayList<>();
+		
+		lock.lock();
+		try {
+			for (File file : files.keySet()) {
+				Segment segment = segments.get(file);
+				long first = files.get(file);
+				long remaining = getNumberOfBlocks(segment) - first;
+				if (remaining <= 0)
+					continue;
 				
-		return new FileBlock(file, block);
+				long picks = Math.min(blocksPerFile, remaining);
+				for (long i = 0; i < picks; i++) {
+					blocks.add(newFileBlock(file, (int)(first + i * remaining / picks), segment));
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		return blocks;
 	}
 	
 	public void markComplete(File file){
 		lock.lock();
-		files.remove(file);
+		dequeue(file);
 		lock.unlock();		
 	}
 	
 	public boolean hasFile(){
-		return files.size() > 0;
+		lock.lock();
+		try {
+			return files.size() > 0 || isExpectingFiles();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Part of a file to read: bytes from <b>start</b> up to <b>limit</b> of a plain file, or members 
+	 * from <b>start</b> on of a BGZF file, whose length was <b>limit</b> when indexed.
+	 */
+	private static class Segment {
+		
+		final long start;
+		final long limit;
+		final List<Long> offsets;
+		final Priority priority;
+		
+		Segment(long start, long limit, List<Long> offsets, Priority priority) {
+			this.start = start;
+			this.limit = limit;
+			this.offsets = offsets;
+			this.priority = priority;
+		}
 	}
 	
 }
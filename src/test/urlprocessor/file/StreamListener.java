@@ -0,0 +1,135 @@
+package test.urlprocessor.file;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import test.urlprocessor.schedule.WorkScheduler;
+
+/**
+ * This worker thread listens on a TCP port and streams lines of every accepted connection
+ * into the WorkScheduler with a StreamReader. Listens until stopped.
+ * <br/>
+ * At most MAX_CONNECTIONS connections are read at once. Further connections wait in the accept
+ * backlog until one closes, so reader threads and memory stay bounded.
+ */
+public class StreamListener implements Callable<Boolean> {
+
+	private static final int MAX_CONNECTIONS = 64;
+
+	private InetSocketAddress address;
+	private WorkScheduler workQueue;
+	private ExecutorService threadPool;
+	private ServerSocket serverSocket;
+	private List<StreamReader> readers;
+	private Semaphore connections;
+	private volatile boolean stopped;
+	
+	/**
+	 * @param address Address to listen on
+	 * @param workQueue WorkScheduler to add work blocks to
+	 * @param threadPool Thread pool to run a StreamReader per connection
+	 * @throws IOException
+	 */
+	public StreamListener(InetSocketAddress address, WorkScheduler workQueue, ExecutorService threadPool) throws IOException {
+		this.address = address;
+		this.workQueue = workQueue;
+		this.threadPool = threadPool;
+		this.readers = Collections.synchronizedList(new ArrayList<>());
+		this.connections = new Semaphore(MAX_CONNECTIONS);
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.bind(address);
+	}
+	
+	/**
+	 * Parse a <i>tcp://host:port</i> or <i>tcp://:port</i> address
+	 * @param url
+	 * @return
+	 */
+	public static InetSocketAddress parseAddress(String url) {
+		String hostPort = url.substring("tcp://".length());
+		int separator = hostPort.lastIndexOf(':');
+		int port = Integer.parseInt(hostPort.substring(separator + 1));
+		return separator > 0 ? new InetSocketAddress(hostPort.substring(0, separator), port) : new InetSocketAddress(port);
+	}
+
+	@Override
+	public Boolean call() throws Exception {
+		System.out.println("LISTENING ON " + address);
+		List<Future<Boolean>> readerFutures = new ArrayList<>();
+		
+		while (!stopped) {
+			connections.acquire();
+			try {
+				Socket socket = serverSocket.accept();
+				StreamReader reader = new StreamReader(socket.getInputStream(), workQueue);
+				readers.add(reader);
+				// A connection accepted while stopping is closed like the others
+				if (stopped)
+					reader.stop();
+				readerFutures.removeIf(Future::isDone);
+				readerFutures.add(threadPool.submit(() -> read(socket, reader)));
+			} catch (IOException e) {
+				connections.release();
+				if (!stopped)
+					e.printStackTrace();
+			}
+		}
+		
+		for (Future<Boolean> future : readerFutures) {
+			try {
+				future.get();
+			} catch (InterruptedException | ExecutionException e) {
+				System.out.println("ERROR IN A THREAD");
+				e.printStackTrace();
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Read a connection until it is closed. A failed connection is logged and does not stop the listener.
+	 * @param socket
+	 * @param reader
+	 * @return false if connection failed
+	 * @throws Exception
+	 */
+	private Boolean read(Socket socket, StreamReader reader) throws Exception {
+		try {
+			return reader.call();
+		} catch (IOException e) {
+			System.out.println("ERROR READING FROM " + socket.getRemoteSocketAddress());
+			e.printStackTrace();
+			return false;
+		} finally {
+			readers.remove(reader);
+			socket.close();
+			connections.release();
+		}
+	}
+	
+	/**
+	 * Stop accepting connections and close open ones. Lines already read are still processed.
+	 */
+	public void stop() {
+		stopped = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		synchronized (readers) {
+			for (StreamReader reader : readers)
+				reader.stop();
+		}
+	}
+}
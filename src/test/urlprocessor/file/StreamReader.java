@@ -0,0 +1,75 @@
+package test.urlprocessor.file;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import test.urlprocessor.schedule.WorkScheduler;
+
+/**
+ * This worker thread reads lines from an unbounded stream such as stdin, a named pipe or a
+ * socket, and adds work blocks to the WorkScheduler. A block is handed over once it is full or
+ * once no more input is available right away, so processing starts with the first line.
+ * As WorkScheduler is bounded, a full scheduler stops reading from the stream, which pushes 
+ * back on the producer and keeps memory constant.
+ * <br/>
+ * A read error ends the reader with the error, lines read before it are still processed.
+ */
+public class StreamReader implements Callable<Boolean> {
+
+	private final int LINES_PER_BLOCK = 200;
+	
+	InputStream input;
+	WorkScheduler workQueue;
+	private volatile boolean stopped;
+	
+	public StreamReader(InputStream input, WorkScheduler workQueue) {
+		this.input = input;
+		this.workQueue = workQueue;
+	}
+
+	@Override
+	public Boolean call() throws Exception {
+		
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
+			List<String> lines = new ArrayList<>(LINES_PER_BLOCK);
+			
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty())
+						lines.add(line);
+					
+					if (lines.size() >= LINES_PER_BLOCK || (!lines.isEmpty() && !reader.ready())) {
+						workQueue.put(lines, null);
+						lines = new ArrayList<>(LINES_PER_BLOCK);
+					}
+				}
+			} catch (IOException e) {
+				// A stream closed by stop is treated as end of stream
+				if (!stopped)
+					throw e;
+			} finally {
+				if (!lines.isEmpty())
+					workQueue.put(lines, null);
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Stop reading by closing the stream. Lines already read are still processed.
+	 */
+	public void stop() {
+		stopped = true;
+		try {
+			input.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
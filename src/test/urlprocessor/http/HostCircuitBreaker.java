@@ -0,0 +1,181 @@
+package test.urlprocessor.http;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker per host, keyed by the same scheme://host:port identity HttpClientManager uses.
+ * <ul>
+ * 	<li><b>CLOSED</b>: requests go through. Circuit opens when at least half of the requests in a
+ * 	window fail, or after several timeouts in a row.</li>
+ * 	<li><b>OPEN</b>: requests fail right away without taking a worker or a pooled connection.</li>
+ * 	<li><b>HALF_OPEN</b>: after a cool down, a few probe requests go through. If all of them succeed
+ * 	circuit closes, if one fails circuit opens again. If the probes are not reported within
+ * 	a timeout, circuit opens again as well.</li>
+ * </ul>
+ */
+public class HostCircuitBreaker {
+
+	private static final long WINDOW_MILLIS = 10 * 1000;
+	private static final int MIN_REQUESTS_IN_WINDOW = 20;
+	private static final double FAILURE_RATE_LIMIT = 0.5;
+	private static final int CONSECUTIVE_TIMEOUT_LIMIT = 5;
+	private static final long OPEN_MILLIS = 30 * 1000;
+	private static final int PROBE_REQUESTS = 3;
+	private static final long PROBE_TIMEOUT_MILLIS = 60 * 1000;
+
+	enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private Map<String, Circuit> circuits;
+	private AtomicLong fastFailed;
+
+	public HostCircuitBreaker() {
+		circuits = new ConcurrentHashMap<>();
+		fastFailed = new AtomicLong();
+	}
+
+	/**
+	 * Check if a request to host may go through. Every allowed request must be followed by
+	 * <b>recordSuccess</b> or <b>recordFailure</b>.
+	 * @param hostPort scheme://host:port of request
+	 * @return false if request should fail right away
+	 */
+	public boolean allowRequest(String hostPort) {
+		if (getCircuit(hostPort).allowRequest())
+			return true;
+
+		fastFailed.incrementAndGet();
+		return false;
+	}
+
+	public void recordSuccess(String hostPort) {
+		getCircuit(hostPort).record(false, false);
+	}
+
+	/**
+	 * @param hostPort
+	 * @param timeout true if request failed because of connect or read timeout
+	 */
+	public void recordFailure(String hostPort, boolean timeout) {
+		getCircuit(hostPort).record(true, timeout);
+	}
+
+	private Circuit getCircuit(String hostPort) {
+		Circuit circuit = circuits.get(hostPort);
+		if (circuit == null)
+			circuit = circuits.computeIfAbsent(hostPort, (key) -> new Circuit());
+		return circuit;
+	}
+
+	/**
+	 * Print hosts whose circuit is not closed, along with number of fast failed requests
+	 */
+	public void printStatus() {
+		StringBuilder status = new StringBuilder();
+		for (Map.Entry<String, Circuit> circuit : circuits.entrySet()) {
+			State state = circuit.getValue().getState();
+			if (state != State.CLOSED)
+				status.append("\t").append(circuit.getKey()).append(" ").append(state);
+		}
+
+		if (status.length() > 0 || fastFailed.get() > 0)
+			System.out.println("CIRCUITS:" + (status.length() > 0 ? status : "\tALL CLOSED")
+					+ "\t\tFAST FAILED: " + fastFailed.get());
+	}
+
+	/**
+	 * State of one host
+	 */
+	private static class Circuit {
+
+		private State state = State.CLOSED;
+		private long windowStart = System.currentTimeMillis();
+		private int requests;
+		private int failures;
+		private int consecutiveTimeouts;
+		private long openedAt;
+		private long halfOpenedAt;
+		private int probesAllowed;
+		private int probesSucceeded;
+
+		synchronized boolean allowRequest() {
+			long now = System.currentTimeMillis();
+			switch (state) {
+			case OPEN:
+				if (now - openedAt < OPEN_MILLIS)
+					return false;
+				state = State.HALF_OPEN;
+				halfOpenedAt = now;
+				probesAllowed = 0;
+				probesSucceeded = 0;
+				return allowProbe();
+			case HALF_OPEN:
+				// Outcome of a probe was lost, do not wait for it forever
+				if (probesAllowed >= PROBE_REQUESTS && now - halfOpenedAt >= PROBE_TIMEOUT_MILLIS) {
+					open();
+					return false;
+				}
+				return allowProbe();
+			default:
+				return true;
+			}
+		}
+
+		private boolean allowProbe() {
+			if (probesAllowed >= PROBE_REQUESTS)
+				return false;
+			probesAllowed++;
+			return true;
+		}
+
+		synchronized void record(boolean failure, boolean timeout) {
+			switch (state) {
+			case HALF_OPEN:
+				if (failure) {
+					open();
+				} else if (++probesSucceeded >= PROBE_REQUESTS) {
+					close();
+				}
+				break;
+			case CLOSED:
+				long now = System.currentTimeMillis();
+				if (now - windowStart > WINDOW_MILLIS) {
+					windowStart = now;
+					requests = 0;
+					failures = 0;
+				}
+
+				requests++;
+				if (failure)
+					failures++;
+				consecutiveTimeouts = timeout ? consecutiveTimeouts + 1 : 0;
+
+				if (consecutiveTimeouts >= CONSECUTIVE_TIMEOUT_LIMIT
+						|| (requests >= MIN_REQUESTS_IN_WINDOW && failures >= requests * FAILURE_RATE_LIMIT))
+					open();
+				break;
+			default:
+				// Result of a request allowed before circuit opened
+				break;
+			}
+		}
+
+		synchronized State getState() {
+			return state;
+		}
+
+		private void open() {
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+
+		private void close() {
+			state = State.CLOSED;
+			windowStart = System.currentTimeMillis();
+			requests = 0;
+			failures = 0;
+			consecutiveTimeouts = 0;
+		}
+	}
+}
@@ -1,26 +1,50 @@
 package test.urlprocessor.http;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import static java.util.Map.Entry.comparingByKey;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import static java.util.stream.Collectors.*;
 
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionRequest;
 import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import test.urlprocessor.telemetry.Telemetry;
 
 /**
  * A Singleton class that manages Http Connection pool for bulk Http Requests.
  * This class continuously tunes the connection pool to allot more connections to
  * most commonly used URL.
+ * <br/>
+ * All workers share one long lived HttpClient built on this pool. Connections are kept alive as
+ * long as servers hint with Keep-Alive header, and a background evictor closes expired and idle ones.
  * @author prathameshjagtap
  *
  */
@@ -32,9 +56,20 @@ public class HttpClientManager {
 	private static Map<String, Integer> stats;
 	private static ReentrantLock statsLock;
 
-	PoolingHttpClientConnectionManager connManager;
+	InstrumentedConnectionManager connManager;
+	private HostCircuitBreaker circuitBreaker;
+	private RequestConfig requestConfig;
+	private CloseableHttpClient httpClient;
 	private int maximumConnections;
 	private final double PREFERRED_POOL_LIMIT = 0.8;
+	private final double WARM_UP_POOL_LIMIT = 0.5;
+	private final int WARM_UP_TIMEOUT_SECS = 10;
+	private final int WARM_UP_KEEP_ALIVE_SECS = 60;
+	private final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+	private final int SOCKET_TIMEOUT_MILLIS = 30 * 1000;
+	private final long DEFAULT_KEEP_ALIVE_MILLIS = 30 * 1000;
+	private final long MAX_IDLE_SECS = 60;
+	private final int VALIDATE_AFTER_INACTIVITY_MILLIS = 1000;
 	
 	static {
 		lock = new ReentrantLock();
@@ -45,7 +80,33 @@ public class HttpClientManager {
 	 */
 	private HttpClientManager() {
 		stats = new ConcurrentHashMap<>();
-		connManager = new PoolingHttpClientConnectionManager();
+		connManager = new InstrumentedConnectionManager();
+		circuitBreaker = new HostCircuitBreaker();
+		// Timeouts bound how long a dead host can hold a worker, and let circuit breaker see it
+		requestConfig = RequestConfig.custom()
+				.setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+				.setSocketTimeout(SOCKET_TIMEOUT_MILLIS)
+				.build();
+		// Check connections idle for a while are not half closed by server before reusing them
+		connManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+		httpClient = HttpClients.custom().
+			    setConnectionManager(connManager).
+			    setDefaultRequestConfig(requestConfig).
+			    setKeepAliveStrategy(this::getKeepAliveDuration).
+			    evictExpiredConnections().
+			    evictIdleConnections(MAX_IDLE_SECS, TimeUnit.SECONDS).build();
+	}
+	
+	/**
+	 * Keep a connection alive as long as server hints with Keep-Alive header, 
+	 * else for DEFAULT_KEEP_ALIVE_MILLIS instead of forever.
+	 * @param response
+	 * @param context
+	 * @return Keep alive duration in milliseconds
+	 */
+	private long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+		long hint = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+		return hint > 0 ? hint : DEFAULT_KEEP_ALIVE_MILLIS;
 	}
 	
 	/**
@@ -63,6 +124,10 @@ public class HttpClientManager {
 		return manager;
 	}
 	
+	public HostCircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+	
 	public void setMaximumConnections(int maximumConnections) {
 		this.maximumConnections = maximumConnections;
 	}
@@ -93,10 +158,24 @@ public class HttpClientManager {
 	 * @param urls Upcoming URLs Requests
 	 */
 	public void tune(List<String> urls) {
+		Object poolTune = Telemetry.beginPoolTune();
 		
 		Map<String, Integer> newStats = getStats(urls);
 		updateStats(newStats);
 		
+		for(Map.Entry<HttpHost, Double> hostWeight : getPreferredHostWeights().entrySet()){
+			connManager.setMaxPerRoute(toRoute(hostWeight.getKey()), (int)(hostWeight.getValue() * maximumConnections));
+		}
+		
+		Telemetry.endPoolTune(poolTune, urls.size(), newStats.size());
+	}
+	
+	/**
+	 * Find the top hosts from URL stats and the share of the connection pool each of them should get.
+	 * Shares of all preferred hosts add up to <b>PREFERRED_POOL_LIMIT</b>.
+	 * @return Preferred host along with its share of connection pool
+	 */
+	private Map<HttpHost, Double> getPreferredHostWeights() {
 		List<Map.Entry<Integer,String>> reversedAndSortedStats = reverseAndSortHashMap(stats);
 		
 		Map<HttpHost, Integer> hostWeights = new HashMap<>();
@@ -104,18 +183,141 @@ public class HttpClientManager {
 		int sum = 0;
 		for (int i = 0; i < reversedAndSortedStats.size() && i < 5; i++) {
 			int count = reversedAndSortedStats.get(i).getKey();
-			String hostPort[] = reversedAndSortedStats.get(i).getValue().split(":");
-			
-			HttpHost host = new HttpHost(hostPort[0], Integer.parseInt(hostPort[1]));
+			HttpHost host = HttpHost.create(reversedAndSortedStats.get(i).getValue());
 			
 			hostWeights.put(host, count);
 			sum += count; 
 		}
 		
+		Map<HttpHost, Double> hostShares = new HashMap<>();
 		for(Map.Entry<HttpHost, Integer> hostWeight : hostWeights.entrySet()){
 			double percent = ((double)hostWeight.getValue() / (double)sum) * PREFERRED_POOL_LIMIT;
-			connManager.setMaxPerRoute(new HttpRoute(hostWeight.getKey()), (int)(percent * maximumConnections));
+			hostShares.put(hostWeight.getKey(), percent);
 		}
+		return hostShares;
+	}
+	
+	/**
+	 * Pre-scan warm up. Seeds URL stats and route limits from a sample of upcoming URLs, then opens 
+	 * a share of every preferred host's connections ahead of time and returns them to the pool 
+	 * kept alive, so that TCP and TLS handshakes are not paid during the run.
+	 * <br/>
+	 * Every warmed connection carries a HEAD request for a sampled URL of its host, whose outcome 
+	 * is recorded in the circuit breaker. Warm-up requests are not counted in progress.
+	 * @param urls Sample of upcoming URLs
+	 * @param executor Executor to open connections in parallel
+	 */
+	public void warmUp(List<String> urls, ExecutorService executor) {
+		tune(urls);
+		Map<String, String> samplePaths = getSamplePaths(urls);
+		
+		List<Future<HttpClientConnection>> futures = new ArrayList<>();
+		for(Map.Entry<HttpHost, Double> hostWeight : getPreferredHostWeights().entrySet()){
+			String hostPort = hostWeight.getKey().toURI();
+			String path = samplePaths.get(hostPort);
+			if (path == null)
+				continue;
+			
+			HttpRoute route = toRoute(hostWeight.getKey());
+			int count = (int)(hostWeight.getValue() * maximumConnections * WARM_UP_POOL_LIMIT);
+			for (int i = 0; i < count; i++) {
+				futures.add(executor.submit(() -> openConnection(route, hostPort, path)));
+			}
+		}
+		
+		// Connections are held until all are open, otherwise pool would hand out the same connection again
+		List<HttpClientConnection> connections = new ArrayList<>();
+		for (Future<HttpClientConnection> future : futures) {
+			try {
+				HttpClientConnection connection = future.get();
+				if (connection != null)
+					connections.add(connection);
+			} catch (InterruptedException | ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		for (HttpClientConnection connection : connections)
+			connManager.releaseConnection(connection, null, WARM_UP_KEEP_ALIVE_SECS, TimeUnit.SECONDS);
+		
+		System.out.println("WARMED UP " + connections.size() + " CONNECTIONS");
+	}
+	
+	/**
+	 * First sampled path of every host
+	 * @param urls
+	 * @return scheme://host:port -> path and query of a URL of the host
+	 */
+	private Map<String, String> getSamplePaths(List<String> urls) {
+		Map<String, String> paths = new HashMap<>();
+		for (String urlStr : urls) {
+			try {
+				URL url = new URL(urlStr);
+				paths.putIfAbsent(toHostPort(url), url.getFile().isEmpty() ? "/" : url.getFile());
+			} catch (MalformedURLException e) {
+				continue;
+			}
+		}
+		return paths;
+	}
+	
+	/**
+	 * Lease a connection for route from the pool, connect it if it is not open already and send 
+	 * a HEAD request for a sampled path over it. The request binds the connection's streams, so it 
+	 * can be validated and reused like any connection HttpClient opened itself.
+	 * @param route
+	 * @param hostPort scheme://host:port of route, to record outcome in circuit breaker
+	 * @param path Path and query of a sampled URL of the host
+	 * @return Leased connection or null if it could not be connected or server would not keep it alive
+	 * @throws Exception
+	 */
+	private HttpClientConnection openConnection(HttpRoute route, String hostPort, String path) throws Exception {
+		ConnectionRequest request = connManager.requestConnection(route, null);
+		HttpClientConnection connection = request.get(WARM_UP_TIMEOUT_SECS, TimeUnit.SECONDS);
+		
+		if (!circuitBreaker.allowRequest(hostPort)) {
+			connManager.releaseConnection(connection, null, WARM_UP_KEEP_ALIVE_SECS, TimeUnit.SECONDS);
+			return null;
+		}
+		
+		try {
+			HttpClientContext context = HttpClientContext.create();
+			if (!connection.isOpen()) {
+				connManager.connect(connection, route, WARM_UP_TIMEOUT_SECS * 1000, context);
+				connManager.routeComplete(connection, route, context);
+			}
+			connection.setSocketTimeout(WARM_UP_TIMEOUT_SECS * 1000);
+			
+			HttpHead head = new HttpHead(path);
+			head.setHeader(HttpHeaders.HOST, route.getTargetHost().toHostString());
+			HttpResponse response = new HttpRequestExecutor().execute(head, connection, context);
+			
+			if (response.getStatusLine().getStatusCode() < 500)
+				circuitBreaker.recordSuccess(hostPort);
+			else
+				circuitBreaker.recordFailure(hostPort, false);
+			
+			if (DefaultConnectionReuseStrategy.INSTANCE.keepAlive(response, context))
+				return connection;
+		} catch (IOException e) {
+			circuitBreaker.recordFailure(hostPort, e instanceof InterruptedIOException);
+		} catch (HttpException e) {
+			circuitBreaker.recordFailure(hostPort, false);
+		}
+		// Connection is closed and not returned to the pool
+		
+		connection.close();
+		connManager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+		return null;
+	}
+	
+	/**
+	 * Route for host, as built by HttpClient for requests to it.
+	 * @param host
+	 * @return
+	 */
+	private HttpRoute toRoute(HttpHost host) {
+		return new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
 	}
 	
 	/**
@@ -123,7 +325,9 @@ public class HttpClientManager {
 	 * @param newStats
 	 */
 	private void updateStats(Map<String, Integer> newStats){
+		Object lockWait = Telemetry.beginLockWait();
 		statsLock.lock();
+		Telemetry.endLockWait(lockWait, "HttpClientManager.stats");
 		
 		newStats.entrySet().stream().forEach((entry) -> {
 			Integer previosStats = stats.get(entry.getKey());
@@ -138,7 +342,8 @@ public class HttpClientManager {
 	}
 
 	/**
-	 * For given list of Urls, find the count for each unique host:port pairs
+	 * For given list of Urls, find the count for each unique host:port pairs.
+	 * Pairs are kept as scheme://host:port with default port filled in, same as the route HttpClient uses.
 	 * @param urls
 	 * @return host:port pair along with it counts 
 	 */
@@ -154,7 +359,7 @@ public class HttpClientManager {
 				return;
 			}
 			
-			String hostPort = url.getHost() + ":" + url.getPort();
+			String hostPort = toHostPort(url);
 			
 			Integer count = stats.get(hostPort);
 			if (count == null) {
@@ -168,6 +373,15 @@ public class HttpClientManager {
 		return stats;
 	}
 	
+	/**
+	 * @param url
+	 * @return scheme://host:port identity of the URL
+	 */
+	public static String toHostPort(URL url) {
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol() + "://" + url.getHost() + ":" + port;
+	}
+	
 	/**
 	 * Reverse the map by making key->Value and Value->Key <br/>
 	 * After reversal, sort in non-increasing order it by Key. 
@@ -176,26 +390,43 @@ public class HttpClientManager {
 	 * @return Map of value -> key
 	 */
 	private List<Map.Entry<Integer,String>> reverseAndSortHashMap(Map<String, Integer> map) {
-		Map<Integer, String> mapInversed = 
+		// Hosts with equal counts must all be kept, so entries are reversed one by one instead of into a map
+		List<Map.Entry<Integer, String>> mapInversed = 
 			    map.entrySet()
 			       .stream()
-			       .collect(toMap(
-			    		   Map.Entry::getValue, 
-			    		   Map.Entry::getKey));
+			       .map((entry) -> new AbstractMap.SimpleEntry<>(entry.getValue(), entry.getKey()))
+			       .collect(toList());
 		
-		return mapInversed.entrySet().stream()
+		return mapInversed.stream()
 				.sorted(Collections.reverseOrder(comparingByKey()))
 				.collect(toList());
 
 	}
 	
 	/**
-	 * Return an HttpClient with preferred host pool configuration.
+	 * Return the shared HttpClient with preferred host pool configuration.
 	 * @return
 	 */
 	public CloseableHttpClient getHttpClient() {
-		return HttpClients.custom().
-			    setConnectionManager(connManager).build();
+		return httpClient;
+	}
+	
+	/**
+	 * Close the shared HttpClient, its idle connection evictor and all pooled connections
+	 */
+	public void close() {
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Print connection reuse stats of the pool
+	 */
+	public void printConnectionStats() {
+		connManager.printStats();
 	}
 	
 }
@@ -1,96 +1,254 @@
 package test.urlprocessor.http;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
 
+import test.urlprocessor.ConcurrencyController;
 import test.urlprocessor.ProgressReport;
+import test.urlprocessor.http.body.BodyProcessing;
+import test.urlprocessor.http.body.BodyProcessor;
+import test.urlprocessor.schedule.WorkBlock;
+import test.urlprocessor.schedule.WorkScheduler;
+import test.urlprocessor.telemetry.Telemetry;
 
 /**
  * Block processor worker thread is responsible for making Http Get calls for each
- * URL in a block. This class works of a BlockingQueue to pull its work.
+ * URL in a block. This class works of a WorkScheduler to pull its work.
  * @author prathameshjagtap
  *
  */
 public class HttpGetBlockProcessor implements Callable<Boolean>{
 
-	BlockingQueue<List<String>> workQueues;
+	WorkScheduler workQueues;
 	ProgressReport progress;
 	HttpClientManager httpClientManager;
+	ConcurrencyController controller;
+	BodyProcessing bodyProcessing;
+	List<BodyProcessor> bodyProcessors;
+	StringBuilder result;
+	byte[] bodyBuffer;
+	byte[] drainBuffer;
 	int previousStepIndex;
 	
+	static final int DRAIN_BUFFER_SIZE = 8 * 1024;
+	
 	/**
 	 * 
-	 * @param workQueues Blocking Queue that hold workload
+	 * @param workQueues WorkScheduler that hold workload
 	 * @param progress Instance of Progressreport to keep updating progress
 	 * @param stepIndex Index of HttpGetBlockProcessor in pipeline
 	 */
-	public HttpGetBlockProcessor(BlockingQueue<List<String>> workQueues, ProgressReport progress, int stepIndex) {
+	public HttpGetBlockProcessor(WorkScheduler workQueues, ProgressReport progress, int stepIndex) {
 		this.workQueues = workQueues;
 		this.progress = progress;
 		this.httpClientManager = HttpClientManager.getInstance();
 		this.previousStepIndex = stepIndex - 1;
 	}
 	
+	/**
+	 * 
+	 * @param workQueues WorkScheduler that hold workload
+	 * @param progress Instance of Progressreport to keep updating progress
+	 * @param stepIndex Index of HttpGetBlockProcessor in pipeline
+	 * @param controller Controller that may ask this worker to retire when it shrinks the worker count
+	 * @param bodyProcessing Body processors to run on every response. If null, bodies are discarded
+	 */
+	public HttpGetBlockProcessor(WorkScheduler workQueues, ProgressReport progress, int stepIndex,
+			ConcurrencyController controller, BodyProcessing bodyProcessing) {
+		this(workQueues, progress, stepIndex);
+		this.controller = controller;
+		this.bodyProcessing = bodyProcessing;
+		if (bodyProcessing != null) {
+			this.bodyProcessors = bodyProcessing.newProcessors();
+			this.result = new StringBuilder();
+			this.bodyBuffer = new byte[BodyProcessing.BUFFER_SIZE];
+		}
+	}
+	
 	@Override
 	public Boolean call() {
 		
 		// Check until Previous step (Block Producer) is not completed and work Queues are not empty
 		while(!progress.isStepComplete(previousStepIndex) || !workQueues.isEmpty()){
-			List<String> urls;
+			if(controller != null && controller.shouldRetire())
+				break;
+			
+			WorkBlock block;
 			try {
-				urls = workQueues.poll(5, TimeUnit.SECONDS);
+				block = workQueues.poll(5, TimeUnit.SECONDS);
 				
-				if(urls == null)
+				if(block == null)
 					continue;
 			} catch (InterruptedException e) {
 				throw new RuntimeException(e);
 			}
 			
+			List<String> urls = block.getUrls();
 			HttpClientManager httpClientManager = HttpClientManager.getInstance();
 			httpClientManager.tune(urls);
 			
-			executeUrls(urls);
+			try {
+				executeUrls(urls);
+			} finally {
+				workQueues.complete(block);
+			}
 		}
 		
 		return true;
 	}
 	
 	/**
-	 * Execute Get all the URLs in list.
+	 * Execute Get all the URLs in list. URLs of hosts with an open circuit fail right away.
+	 * With body processors, a result line is written for failed URLs too.
 	 * @param urls URLs to execute
 	 */
 	private void executeUrls(List<String> urls) {
 		int failed = 0;
 		int success = 0;
+		long startTime = System.currentTimeMillis();
+		HostCircuitBreaker circuitBreaker = httpClientManager.getCircuitBreaker();
 		
 		for (String url : urls) {
+			String hostPort;
+			try {
+				hostPort = HttpClientManager.toHostPort(new URL(url));
+			} catch (MalformedURLException e) {
+				writeFailure(url, "MALFORMED_URL");
+				failed++;
+				continue;
+			}
+			
+			if (!circuitBreaker.allowRequest(hostPort)) {
+				writeFailure(url, "CIRCUIT_OPEN");
+				failed++;
+				continue;
+			}
+			
+			Object request = Telemetry.beginRequest();
+			int code = 0;
+			long bytes = 0;
 			try {
 				
 				CloseableHttpClient httpClient = httpClientManager.getHttpClient();
 				HttpGet get = new HttpGet(url);
 				HttpResponse response = httpClient.execute(get);
-				int code = response.getStatusLine().getStatusCode();
+				code = response.getStatusLine().getStatusCode();
 				
-				EntityUtils.consume(response.getEntity());
+				HttpEntity entity = response.getEntity();
+				if(bodyProcessors == null)
+					bytes = drainBody(entity);
+				else
+					bytes = processBody(url, code, entity);
+				
+				if(code < 500)
+					circuitBreaker.recordSuccess(hostPort);
+				else
+					circuitBreaker.recordFailure(hostPort, false);
 				
 				if(code < 400)
 					success++;
 				else
 					failed++;
 			} catch (IOException e) {
+				circuitBreaker.recordFailure(hostPort, e instanceof InterruptedIOException);
+				writeFailure(url, e.getClass().getSimpleName());
 				failed++;
+			} catch (RuntimeException e) {
+				// e.g. a URL HttpGet rejects. Outcome must still reach the circuit breaker
+				circuitBreaker.recordFailure(hostPort, false);
+				writeFailure(url, e.getClass().getSimpleName());
+				failed++;
+			} finally {
+				Telemetry.endRequest(request, url, hostPort, code, bytes);
 			}
 		}
 		
-		progress.add(success, failed);
+		progress.add(success, failed, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Read and discard body. Bytes are counted as read, since Content-Length is missing 
+	 * for chunked responses. Closing the content stream returns the connection to the pool.
+	 * @param entity
+	 * @return Number of body bytes read
+	 * @throws IOException
+	 */
+	private long drainBody(HttpEntity entity) throws IOException {
+		if (entity == null)
+			return 0;
+		if (drainBuffer == null)
+			drainBuffer = new byte[DRAIN_BUFFER_SIZE];
+		
+		long bytes = 0;
+		try (InputStream content = entity.getContent()) {
+			int read;
+			while ((read = content.read(drainBuffer)) != -1)
+				bytes += read;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Stream body through body processors on the worker's buffer and write their results. 
+	 * Closing the content stream returns the connection to the pool, same as EntityUtils.consume.
+	 * @param url
+	 * @param code
+	 * @param entity
+	 * @return Number of body bytes read
+	 * @throws IOException
+	 */
+	private long processBody(String url, int code, HttpEntity entity) throws IOException {
+		for (BodyProcessor processor : bodyProcessors)
+			processor.reset();
+		
+		long bytes = 0;
+		if (entity != null) {
+			try (InputStream content = entity.getContent()) {
+				int read;
+				while ((read = content.read(bodyBuffer)) != -1) {
+					bytes += read;
+					for (BodyProcessor processor : bodyProcessors)
+						processor.update(bodyBuffer, 0, read);
+				}
+			}
+		}
+		
+		result.setLength(0);
+		result.append(url).append('\t').append(code);
+		for (BodyProcessor processor : bodyProcessors) {
+			result.append('\t');
+			processor.appendResult(result);
+		}
+		bodyProcessing.write(result);
+		return bytes;
+	}
+	
+	/**
+	 * Write result line of a URL without response. Error takes place of status and processor
+	 * results are left empty, so every URL has a line.
+	 * @param url
+	 * @param error
+	 */
+	private void writeFailure(String url, String error) {
+		if (bodyProcessors == null)
+			return;
+		
+		result.setLength(0);
+		result.append(url).append('\t').append(error);
+		for (int i = 0; i < bodyProcessors.size(); i++)
+			result.append('\t');
+		bodyProcessing.write(result);
 	}
 
 }
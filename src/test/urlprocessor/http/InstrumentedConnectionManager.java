@@ -0,0 +1,84 @@
+package test.urlprocessor.http;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import test.urlprocessor.telemetry.Telemetry;
+
+/**
+ * Pooling connection manager that records how long requests wait to lease a connection,
+ * and counts leases against new connects to show how often pooled connections are reused.
+ */
+public class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+
+	private LongAdder leases = new LongAdder();
+	private LongAdder connects = new LongAdder();
+
+	@Override
+	public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+		ConnectionRequest request = super.requestConnection(route, state);
+		
+		return new ConnectionRequest() {
+			
+			@Override
+			public boolean cancel() {
+				return request.cancel();
+			}
+			
+			@Override
+			public HttpClientConnection get(long timeout, TimeUnit tunit)
+					throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+				Object leaseWait = Telemetry.beginLeaseWait();
+				try {
+					HttpClientConnection connection = request.get(timeout, tunit);
+					leases.increment();
+					return connection;
+				} finally {
+					Telemetry.endLeaseWait(leaseWait, route.getTargetHost().toHostString());
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Only called for a leased connection which is not open yet, i.e. it is not reused
+	 */
+	@Override
+	public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout, HttpContext context)
+			throws IOException {
+		connects.increment();
+		super.connect(managedConn, route, connectTimeout, context);
+	}
+	
+	public long getLeases() {
+		return leases.sum();
+	}
+	
+	public long getConnects() {
+		return connects.sum();
+	}
+	
+	/**
+	 * Print number of leases, new connects, reuse rate and current pool usage
+	 */
+	public void printStats() {
+		long leased = getLeases();
+		long connected = getConnects();
+		long reusePercent = leased > 0 ? Math.max(0, leased - connected) * 100 / leased : 0;
+		PoolStats pool = getTotalStats();
+		
+		System.out.println("CONNECTIONS: LEASES: " + leased + "\t\tNEW: " + connected + "\t\tREUSED: " + reusePercent 
+				+ "%\t\tPOOL LEASED: " + pool.getLeased() + "\t\tPOOL IDLE: " + pool.getAvailable());
+	}
+	
+}
@@ -0,0 +1,95 @@
+package test.urlprocessor.http.body;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration of body processors for a run, shared by all workers. It creates processors 
+ * for every worker and writes one result line per URL: <i>url, status, result of each processor</i> 
+ * separated by tabs. When there is no response, status holds the error and results are empty.
+ * <br/>
+ * Built in processors: <b>sha256</b>, <b>xxhash64</b>, <b>size</b> and <b>mime</b>.
+ */
+public class BodyProcessing {
+
+	/** Size of the buffer every worker reads bodies into */
+	public static final int BUFFER_SIZE = 16 * 1024;
+	
+	private List<String> names;
+	private Writer writer;
+	private char[] line;
+	
+	/**
+	 * @param names Names of processors to run on every response
+	 * @param output File to write results to
+	 * @throws IOException
+	 */
+	public BodyProcessing(List<String> names, File output) throws IOException {
+		this.names = names;
+		this.line = new char[1024];
+		
+		StringBuilder header = new StringBuilder("url\tstatus");
+		for (BodyProcessor processor : newProcessors())
+			header.append('\t').append(processor.getName());
+		
+		this.writer = new BufferedWriter(new FileWriter(output));
+		write(header);
+	}
+	
+	/**
+	 * Create a new set of processors for a worker
+	 * @return
+	 */
+	public List<BodyProcessor> newProcessors() {
+		List<BodyProcessor> processors = new ArrayList<>();
+		for (String name : names) {
+			switch (name) {
+			case "sha256":
+				processors.add(new DigestBodyProcessor(name, "SHA-256"));
+				break;
+			case "xxhash64":
+				processors.add(new XxHashBodyProcessor());
+				break;
+			case "size":
+				processors.add(new ByteCountBodyProcessor());
+				break;
+			case "mime":
+				processors.add(new MimeSniffBodyProcessor());
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown body processor: " + name);
+			}
+		}
+		return processors;
+	}
+	
+	/**
+	 * Write a result line. Line is copied so the caller can reuse it.
+	 * @param result
+	 */
+	public synchronized void write(StringBuilder result) {
+		if (line.length < result.length() + 1)
+			line = new char[Math.max(line.length * 2, result.length() + 1)];
+		
+		result.getChars(0, result.length(), line, 0);
+		line[result.length()] = '\n';
+		try {
+			writer.write(line, 0, result.length() + 1);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public synchronized void close() {
+		try {
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package test.urlprocessor.http.body;
+
+/**
+ * Processes a response body as it streams in, without building it in memory. 
+ * Every worker has its own instances, which are reused for every response.
+ */
+public interface BodyProcessor {
+
+	/**
+	 * @return Name of the result column
+	 */
+	String getName();
+	
+	/**
+	 * Called before the first chunk of every response
+	 */
+	void reset();
+	
+	/**
+	 * Called for every chunk of the body. Buffer is reused after this call returns.
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 */
+	void update(byte[] buffer, int offset, int length);
+	
+	/**
+	 * Append result for the body read since reset
+	 * @param result
+	 */
+	void appendResult(StringBuilder result);
+}
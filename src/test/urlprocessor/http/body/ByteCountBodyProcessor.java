@@ -0,0 +1,30 @@
+package test.urlprocessor.http.body;
+
+/**
+ * Exact number of body bytes received, regardless of Content-Length.
+ */
+public class ByteCountBodyProcessor implements BodyProcessor {
+
+	private long bytes;
+	
+	@Override
+	public String getName() {
+		return "size";
+	}
+
+	@Override
+	public void reset() {
+		bytes = 0;
+	}
+
+	@Override
+	public void update(byte[] buffer, int offset, int length) {
+		bytes += length;
+	}
+
+	@Override
+	public void appendResult(StringBuilder builder) {
+		builder.append(bytes);
+	}
+
+}
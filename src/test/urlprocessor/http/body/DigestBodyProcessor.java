@@ -0,0 +1,59 @@
+package test.urlprocessor.http.body;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hex encoded message digest of the body, e.g. SHA-256.
+ */
+public class DigestBodyProcessor implements BodyProcessor {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	private String name;
+	private MessageDigest digest;
+	private byte[] result;
+	
+	/**
+	 * @param name Name of result column
+	 * @param algorithm MessageDigest algorithm
+	 */
+	public DigestBodyProcessor(String name, String algorithm) {
+		try {
+			this.name = name;
+			this.digest = MessageDigest.getInstance(algorithm);
+			this.result = new byte[digest.getDigestLength()];
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void reset() {
+		digest.reset();
+	}
+
+	@Override
+	public void update(byte[] buffer, int offset, int length) {
+		digest.update(buffer, offset, length);
+	}
+
+	@Override
+	public void appendResult(StringBuilder builder) {
+		try {
+			digest.digest(result, 0, result.length);
+		} catch (DigestException e) {
+			throw new IllegalStateException(e);
+		}
+		for (byte b : result) {
+			builder.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package test.urlprocessor.http.body;
+
+/**
+ * Sniffs MIME type of the body from its first bytes, independent of the Content-Type header.
+ */
+public class MimeSniffBodyProcessor implements BodyProcessor {
+
+	private static final int SNIFF_LENGTH = 512;
+	
+	private byte[] head;
+	private int headLength;
+	
+	public MimeSniffBodyProcessor() {
+		head = new byte[SNIFF_LENGTH];
+	}
+	
+	@Override
+	public String getName() {
+		return "mime";
+	}
+
+	@Override
+	public void reset() {
+		headLength = 0;
+	}
+
+	@Override
+	public void update(byte[] buffer, int offset, int length) {
+		if (headLength < SNIFF_LENGTH) {
+			int copy = Math.min(length, SNIFF_LENGTH - headLength);
+			System.arraycopy(buffer, offset, head, headLength, copy);
+			headLength += copy;
+		}
+	}
+
+	@Override
+	public void appendResult(StringBuilder builder) {
+		builder.append(sniff());
+	}
+	
+	private String sniff() {
+		if (headLength == 0)
+			return "-";
+		if (startsWith(0, 0x89, 'P', 'N', 'G'))
+			return "image/png";
+		if (startsWith(0, 0xFF, 0xD8, 0xFF))
+			return "image/jpeg";
+		if (startsWith(0, 'G', 'I', 'F', '8'))
+			return "image/gif";
+		if (startsWith(0, 'R', 'I', 'F', 'F') && startsWith(8, 'W', 'E', 'B', 'P'))
+			return "image/webp";
+		if (startsWith(0, '%', 'P', 'D', 'F', '-'))
+			return "application/pdf";
+		if (startsWith(0, 'P', 'K', 3, 4))
+			return "application/zip";
+		if (startsWith(0, 0x1F, 0x8B))
+			return "application/gzip";
+		
+		int start = 0;
+		if (startsWith(0, 0xEF, 0xBB, 0xBF))
+			start = 3;
+		while (start < headLength && Character.isWhitespace(head[start]))
+			start++;
+		
+		if (startsWithIgnoreCase(start, "<!doctype html") || startsWithIgnoreCase(start, "<html")
+				|| startsWithIgnoreCase(start, "<head") || startsWithIgnoreCase(start, "<body"))
+			return "text/html";
+		if (startsWithIgnoreCase(start, "<?xml"))
+			return "application/xml";
+		if (start < headLength && (head[start] == '{' || head[start] == '['))
+			return "application/json";
+		
+		for (int i = 0; i < headLength; i++) {
+			int b = head[i] & 0xFF;
+			if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1B)
+				return "application/octet-stream";
+		}
+		return "text/plain";
+	}
+	
+	private boolean startsWith(int offset, int... magic) {
+		if (offset + magic.length > headLength)
+			return false;
+		for (int i = 0; i < magic.length; i++) {
+			if ((head[offset + i] & 0xFF) != magic[i])
+				return false;
+		}
+		return true;
+	}
+	
+	private boolean startsWithIgnoreCase(int offset, String prefix) {
+		if (offset + prefix.length() > headLength)
+			return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (Character.toLowerCase(head[offset + i]) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,41 @@
+package test.urlprocessor.http.body;
+
+import test.urlprocessor.utility.XxHash64;
+
+/**
+ * Hex encoded XXH64 hash of the body. Much cheaper than a cryptographic digest.
+ */
+public class XxHashBodyProcessor implements BodyProcessor {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	private XxHash64 hash;
+	
+	public XxHashBodyProcessor() {
+		hash = new XxHash64();
+	}
+	
+	@Override
+	public String getName() {
+		return "xxhash64";
+	}
+
+	@Override
+	public void reset() {
+		hash.reset();
+	}
+
+	@Override
+	public void update(byte[] buffer, int offset, int length) {
+		hash.update(buffer, offset, length);
+	}
+
+	@Override
+	public void appendResult(StringBuilder builder) {
+		long value = hash.digest();
+		for (int shift = 60; shift >= 0; shift -= 4) {
+			builder.append(HEX[(int)(value >>> shift) & 0xF]);
+		}
+	}
+
+}
@@ -0,0 +1,24 @@
+package test.urlprocessor.schedule;
+
+/**
+ * Priority classes of URLs. Classes are served in declaration order, 
+ * HIGH priority work is never shed.
+ */
+public enum Priority {
+	HIGH,
+	NORMAL,
+	LOW;
+	
+	/**
+	 * Parse priority class by name, ignoring case
+	 * @param name
+	 * @return Priority or null if name is not a priority class
+	 */
+	public static Priority parse(String name) {
+		for (Priority priority : values()) {
+			if (priority.name().equalsIgnoreCase(name.trim()))
+				return priority;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,83 @@
+package test.urlprocessor.schedule;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns priority class to URLs. A line may carry its own class as a last column separated by
+ * tab or comma, e.g. <i>http://abc.com/x,high</i>. Otherwise the class comes from the first file 
+ * name pattern matching the source file, or NORMAL.
+ */
+public class PriorityClassifier {
+
+	private List<PathMatcher> matchers;
+	private List<Priority> priorities;
+	
+	public PriorityClassifier() {
+		matchers = new ArrayList<>();
+		priorities = new ArrayList<>();
+	}
+	
+	/**
+	 * Add a file name rule
+	 * @param glob Glob pattern matched against file name
+	 * @param priority Priority class of URLs in matching files
+	 */
+	public void addRule(String glob, Priority priority) {
+		matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		priorities.add(priority);
+	}
+	
+	/**
+	 * @param file
+	 * @return Priority class of URLs in file without a priority column
+	 */
+	public Priority getPriority(File file) {
+		if (file != null) {
+			for (int i = 0; i < matchers.size(); i++) {
+				if (matchers.get(i).matches(file.toPath().getFileName()))
+					return priorities.get(i);
+			}
+		}
+		return Priority.NORMAL;
+	}
+	
+	/**
+	 * Split lines of a source into URL lists per priority class. Priority column is stripped from URLs.
+	 * @param lines
+	 * @param source
+	 * @return
+	 */
+	public Map<Priority, List<String>> classify(List<String> lines, File source) {
+		Priority filePriority = getPriority(source);
+		Map<Priority, List<String>> classified = new EnumMap<>(Priority.class);
+		
+		for (String line : lines) {
+			Priority priority = filePriority;
+			String url = line;
+			
+			int separator = Math.max(line.lastIndexOf('\t'), line.lastIndexOf(','));
+			if (separator > 0) {
+				Priority column = Priority.parse(line.substring(separator + 1));
+				if (column != null) {
+					priority = column;
+					url = line.substring(0, separator);
+				}
+			}
+			
+			List<String> urls = classified.get(priority);
+			if (urls == null) {
+				urls = new ArrayList<>();
+				classified.put(priority, urls);
+			}
+			urls.add(url);
+		}
+		
+		return classified;
+	}
+}
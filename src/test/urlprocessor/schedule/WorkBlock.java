@@ -0,0 +1,33 @@
+package test.urlprocessor.schedule;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Block of URLs of same priority class, read from a source file.
+ */
+public class WorkBlock {
+
+	private List<String> urls;
+	private Priority priority;
+	private File source;
+	
+	public WorkBlock(List<String> urls, Priority priority, File source) {
+		this.urls = urls;
+		this.priority = priority;
+		this.source = source;
+	}
+	
+	public List<String> getUrls() {
+		return urls;
+	}
+	
+	public Priority getPriority() {
+		return priority;
+	}
+	
+	public File getSource() {
+		return source;
+	}
+	
+}
@@ -0,0 +1,250 @@
+package test.urlprocessor.schedule;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import test.urlprocessor.ProgressReport;
+import test.urlprocessor.file.FileManager;
+import test.urlprocessor.telemetry.Telemetry;
+
+/**
+ * Bounded scheduler between AsyncFileReader and HttpGetBlockProcessor. Blocks are served
+ * in priority class order, so lower classes are deferred behind all queued higher class work.
+ * When a run deadline is set, the scheduler estimates completion time of every class from 
+ * current throughput, queued URLs and blocks of files of the class not read yet. If a class, together with all classes above it, cannot finish before 
+ * deadline, its blocks are shed and reported as skipped until the estimate fits again. 
+ * HIGH priority blocks are never shed.
+ */
+public class WorkScheduler {
+
+	private final long ESTIMATE_INTERVAL_MILLIS = 1000;
+	private final double THROUGHPUT_SMOOTHING = 0.3;
+
+	private final int capacity;
+	private final long deadline;
+	private final PriorityClassifier classifier;
+	private final ProgressReport progress;
+	private final FileManager fileManager;
+
+	private ReentrantLock lock;
+	private Condition notEmpty;
+	private Condition notFull;
+
+	private Map<Priority, ArrayDeque<WorkBlock>> queues;
+	private int size;
+
+	private long[] pendingUrls;
+	private long[] enqueuedUrls;
+	private double[] unreadUrls;
+	private long fileBlocks;
+
+	private double throughput;
+	private int lastTotal;
+	private long lastEstimateTime;
+
+	/**
+	 * @param capacity Maximum number of blocks held
+	 * @param deadline Run deadline as epoch millis, or 0 for no deadline
+	 * @param classifier Priority classifier of URLs
+	 * @param progress Instance of ProgressReport to measure throughput and report skipped URLs
+	 * @param fileManager FileManager to estimate work not read yet and to release processed blocks to. May be null
+	 */
+	public WorkScheduler(int capacity, long deadline, PriorityClassifier classifier, ProgressReport progress,
+			FileManager fileManager) {
+		this.capacity = capacity;
+		this.deadline = deadline;
+		this.classifier = classifier;
+		this.progress = progress;
+		this.fileManager = fileManager;
+
+		lock = new ReentrantLock();
+		notEmpty = lock.newCondition();
+		notFull = lock.newCondition();
+
+		queues = new EnumMap<>(Priority.class);
+		for (Priority priority : Priority.values())
+			queues.put(priority, new ArrayDeque<>());
+
+		pendingUrls = new long[Priority.values().length];
+		enqueuedUrls = new long[Priority.values().length];
+		unreadUrls = new double[Priority.values().length];
+		lastEstimateTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Classify lines read from a file block and queue them, waiting for space if scheduler is full.
+	 * @param lines Lines of one file block
+	 * @param source File lines are read from
+	 * @throws InterruptedException
+	 */
+	public void put(List<String> lines, File source) throws InterruptedException {
+		Map<Priority, List<String>> classified = classifier.classify(lines, source);
+		if (fileManager != null)
+			fileManager.retain(source, classified.size());
+
+		Object queueWait = Telemetry.beginQueueWait();
+		lock.lockInterruptibly();
+		try {
+			fileBlocks++;
+			for (Map.Entry<Priority, List<String>> entry : classified.entrySet()) {
+				while (size >= capacity)
+					notFull.await();
+
+				Priority priority = entry.getKey();
+				queues.get(priority).add(new WorkBlock(entry.getValue(), priority, source));
+				pendingUrls[priority.ordinal()] += entry.getValue().size();
+				enqueuedUrls[priority.ordinal()] += entry.getValue().size();
+				size++;
+				notEmpty.signal();
+			}
+		} finally {
+			lock.unlock();
+			Telemetry.endQueueWait(queueWait, "enqueue", lines.size());
+		}
+	}
+
+	/**
+	 * Retrieve highest priority block, waiting up to timeout for one to be available.
+	 * Shed blocks are reported to ProgressReport as skipped and never returned.
+	 * @param timeout
+	 * @param unit
+	 * @return Block or null if none became available
+	 * @throws InterruptedException
+	 */
+	public WorkBlock poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		WorkBlock block = null;
+		List<WorkBlock> shed = new ArrayList<>();
+
+		Object queueWait = Telemetry.beginQueueWait();
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				block = next(shed);
+				if (block != null)
+					return block;
+
+				if (nanos <= 0)
+					return null;
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+		} finally {
+			lock.unlock();
+			Telemetry.endQueueWait(queueWait, "dequeue", block == null ? 0 : block.getUrls().size());
+			// Releasing a block may move its file to done, keep it out of the lock
+			for (WorkBlock shedBlock : shed) {
+				progress.addSkipped(shedBlock.getUrls().size());
+				complete(shedBlock);
+			}
+		}
+	}
+
+	/**
+	 * Find next block to serve. Must be called holding lock.
+	 * @param shed List to collect shed blocks to, to be reported once lock is released
+	 * @return
+	 */
+	private WorkBlock next(List<WorkBlock> shed) {
+		updateEstimate();
+
+		for (Priority priority : Priority.values()) {
+			ArrayDeque<WorkBlock> queue = queues.get(priority);
+			while (!queue.isEmpty()) {
+				WorkBlock block = queue.poll();
+
+				if (priority != Priority.HIGH && isDeadlineAtRisk(priority)) {
+					shed.add(take(block));
+					continue;
+				}
+
+				return take(block);
+			}
+		}
+
+		return null;
+	}
+
+	private WorkBlock take(WorkBlock block) {
+		pendingUrls[block.getPriority().ordinal()] -= block.getUrls().size();
+		size--;
+		notFull.signal();
+		return block;
+	}
+
+	/**
+	 * Called by workers once all URLs of a block are processed
+	 * @param block
+	 */
+	public void complete(WorkBlock block) {
+		if (fileManager != null)
+			fileManager.release(block.getSource());
+	}
+
+	/**
+	 * Estimate if remaining work of given class and all classes above it can be done before
+	 * deadline at current throughput, including work of files not read yet.
+	 * @param priority
+	 * @return
+	 */
+	private boolean isDeadlineAtRisk(Priority priority) {
+		if (deadline == 0)
+			return false;
+		
+		double secondsLeft = (deadline - System.currentTimeMillis()) / 1000.0;
+		if (secondsLeft <= 0)
+			return true;
+		if (throughput <= 0)
+			return false;
+
+		double remaining = 0;
+		for (int i = 0; i <= priority.ordinal(); i++)
+			remaining += pendingUrls[i] + unreadUrls[i];
+
+		return remaining / throughput > secondsLeft;
+	}
+
+	/**
+	 * Update smoothed URLs/sec processed, and URLs of files not read yet per class from blocks 
+	 * FileManager has not allotted yet and URLs per block seen so far.
+	 * Sampled at most once every ESTIMATE_INTERVAL_MILLIS. Must be called holding lock.
+	 */
+	private void updateEstimate() {
+		long now = System.currentTimeMillis();
+		if (deadline == 0 || now - lastEstimateTime < ESTIMATE_INTERVAL_MILLIS)
+			return;
+
+		int total = progress.getTotal();
+		double current = (total - lastTotal) * 1000.0 / (now - lastEstimateTime);
+		throughput = throughput == 0 ? current : THROUGHPUT_SMOOTHING * current + (1 - THROUGHPUT_SMOOTHING) * throughput;
+
+		if (fileManager != null && fileBlocks > 0) {
+			long totalEnqueued = 0;
+			for (long count : enqueuedUrls)
+				totalEnqueued += count;
+
+			long[] remainingBlocks = fileManager.getRemainingBlocks();
+			for (int i = 0; i < unreadUrls.length; i++)
+				unreadUrls[i] = remainingBlocks[i] * ((double) totalEnqueued / fileBlocks);
+		}
+
+		lastTotal = total;
+		lastEstimateTime = now;
+	}
+
+	public boolean isEmpty() {
+		lock.lock();
+		try {
+			return size == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package test.urlprocessor.telemetry;
+
+import java.io.File;
+
+/**
+ * Facade for JDK Flight Recorder events of the pipeline. Every <i>begin</i> method returns an
+ * event to be passed to the matching <i>end</i> method, or null when recording is off.
+ * <br/>
+ * This is the Java 8 version, where Flight Recorder events are not available and every method
+ * does nothing. On Java 11+ the multi-release jar replaces this class with one backed by JFR events
+ * (see src-java11). Events are only created when enabled with <b>--jfr</b>, so cost when disabled
+ * is a null check.
+ */
+public final class Telemetry {
+
+	private Telemetry() {
+	}
+
+	public static void setEnabled(boolean enabled) {
+	}
+
+	public static boolean isSupported() {
+		return false;
+	}
+
+	public static Object beginBlockRead() {
+		return null;
+	}
+
+	public static void endBlockRead(Object event, File file, int block, int lines) {
+	}
+
+	public static Object beginQueueWait() {
+		return null;
+	}
+
+	public static void endQueueWait(Object event, String operation, int urls) {
+	}
+
+	public static Object beginLockWait() {
+		return null;
+	}
+
+	public static void endLockWait(Object event, String lock) {
+	}
+
+	public static Object beginPoolTune() {
+		return null;
+	}
+
+	public static void endPoolTune(Object event, int urls, int hosts) {
+	}
+
+	public static Object beginLeaseWait() {
+		return null;
+	}
+
+	public static void endLeaseWait(Object event, String host) {
+	}
+
+	public static Object beginRequest() {
+		return null;
+	}
+
+	public static void endRequest(Object event, String url, String host, int status, long bytes) {
+	}
+}
@@ -0,0 +1,173 @@
+package test.urlprocessor.utility;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Utilities for BGZF (blocked gzip) files. A BGZF file is a series of independent gzip members
+ * of at most 64KB each, which lets different regions of one compressed file be inflated in parallel.
+ * Every member carries its own compressed size in the 'BC' extra field, so member offsets can be
+ * found by walking headers, or read from a <i>.gzi</i> side index when one is present.
+ */
+public class BgzfFile {
+
+	public static final int MAX_BLOCK_SIZE = 65536;
+	public static final String INDEX_EXTENSION = ".gzi";
+
+	private static final int HEADER_SIZE = 18;
+	private static final int FOOTER_SIZE = 8;
+	private static final int XLEN = 6;
+
+	/**
+	 * Check if the file starts with a BGZF member header.
+	 * @param file
+	 * @return
+	 */
+	public static boolean isBgzf(File file) {
+		byte[] header = new byte[HEADER_SIZE];
+		try (RandomAccessFile reader = new RandomAccessFile(file, "r")) {
+			reader.readFully(header);
+		} catch (IOException e) {
+			return false;
+		}
+		return isBgzfHeader(header);
+	}
+
+	/**
+	 * Check if the file is a side index of a BGZF file
+	 * @param file
+	 * @return
+	 */
+	public static boolean isIndex(File file) {
+		return file.getName().endsWith(INDEX_EXTENSION);
+	}
+
+	/**
+	 * @param file BGZF file
+	 * @return Side index of the file. File may not exist.
+	 */
+	public static File getIndex(File file) {
+		return new File(file.getPath() + INDEX_EXTENSION);
+	}
+
+	/**
+	 * Find the compressed offset of every member in the file. Uses the <i>.gzi</i> side index if present,
+	 * else walks member headers.
+	 * @param file BGZF file
+	 * @return Offsets of members in increasing order
+	 * @throws IOException
+	 */
+	public static List<Long> getBlockOffsets(File file) throws IOException {
+		File index = getIndex(file);
+		if (index.isFile())
+			return readIndex(index);
+
+		List<Long> offsets = new ArrayList<>();
+		byte[] header = new byte[HEADER_SIZE];
+		try (RandomAccessFile reader = new RandomAccessFile(file, "r")) {
+			long offset = 0;
+			long length = reader.length();
+			while (offset < length) {
+				reader.seek(offset);
+				reader.readFully(header);
+				if (!isBgzfHeader(header))
+					throw new IOException("Invalid BGZF block at " + offset + " in " + file);
+				offsets.add(offset);
+				offset += blockSize(header);
+			}
+		}
+		return offsets;
+	}
+
+	/**
+	 * Read a <i>.gzi</i> index: a little endian uint64 count followed by (compressed offset,
+	 * uncompressed offset) uint64 pairs. The first member at offset 0 is implicit.
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 */
+	private static List<Long> readIndex(File index) throws IOException {
+		List<Long> offsets = new ArrayList<>();
+		offsets.add(0L);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+			long count = Long.reverseBytes(in.readLong());
+			for (long i = 0; i < count; i++) {
+				offsets.add(Long.reverseBytes(in.readLong()));
+				in.readLong();
+			}
+		} catch (EOFException e) {
+			throw new IOException("Truncated BGZF index " + index, e);
+		}
+		return offsets;
+	}
+
+	/**
+	 * Inflate one member.
+	 * @param reader Reader on the BGZF file
+	 * @param offset Compressed offset of member
+	 * @param compressed Scratch buffer of at least MAX_BLOCK_SIZE bytes
+	 * @param out Buffer to inflate into
+	 * @param outOffset Offset in out to inflate at. out must have MAX_BLOCK_SIZE bytes free from here
+	 * @param inflater Inflater created with nowrap = true
+	 * @return Number of bytes inflated
+	 * @throws IOException
+	 */
+	public static int inflateBlock(RandomAccessFile reader, long offset, byte[] compressed, byte[] out, int outOffset,
+			Inflater inflater) throws IOException {
+		reader.seek(offset);
+		reader.readFully(compressed, 0, HEADER_SIZE);
+		if (!isBgzfHeader(compressed))
+			throw new IOException("Invalid BGZF block at " + offset);
+
+		int blockSize = blockSize(compressed);
+		reader.readFully(compressed, HEADER_SIZE, blockSize - HEADER_SIZE);
+
+		int inflatedSize = readInt(compressed, blockSize - 4);
+		if (inflatedSize == 0)
+			return 0;
+
+		inflater.reset();
+		inflater.setInput(compressed, HEADER_SIZE, blockSize - HEADER_SIZE - FOOTER_SIZE);
+		try {
+			int read = 0;
+			while (read < inflatedSize && !inflater.finished()) {
+				int n = inflater.inflate(out, outOffset + read, inflatedSize - read);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				read += n;
+			}
+			if (read != inflatedSize)
+				throw new IOException("Corrupt BGZF block at " + offset);
+			return read;
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block at " + offset, e);
+		}
+	}
+
+	private static boolean isBgzfHeader(byte[] header) {
+		return (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && header[2] == 8
+				&& (header[3] & 4) != 0 && readShort(header, 10) == XLEN
+				&& header[12] == 'B' && header[13] == 'C' && readShort(header, 14) == 2;
+	}
+
+	private static int blockSize(byte[] header) {
+		return readShort(header, 16) + 1;
+	}
+
+	private static int readShort(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8);
+	}
+
+	private static int readInt(byte[] buffer, int offset) {
+		return readShort(buffer, offset) | (readShort(buffer, offset + 2) << 16);
+	}
+}
@@ -0,0 +1,131 @@
+package test.urlprocessor.utility;
+
+/**
+ * Streaming XXH64 hash. An instance can be reused with <b>reset</b> and does not allocate
+ * while hashing.
+ * <a href="https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md">Ref: xxHash specification</a>
+ */
+public class XxHash64 {
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private final long seed;
+	private final byte[] stripe;
+	private int stripeSize;
+	private long totalLength;
+	private long v1, v2, v3, v4;
+
+	public XxHash64() {
+		this(0);
+	}
+
+	public XxHash64(long seed) {
+		this.seed = seed;
+		this.stripe = new byte[32];
+		reset();
+	}
+
+	public void reset() {
+		v1 = seed + PRIME1 + PRIME2;
+		v2 = seed + PRIME2;
+		v3 = seed;
+		v4 = seed - PRIME1;
+		stripeSize = 0;
+		totalLength = 0;
+	}
+
+	public void update(byte[] buffer, int offset, int length) {
+		totalLength += length;
+		int end = offset + length;
+
+		if (stripeSize > 0) {
+			int fill = Math.min(32 - stripeSize, length);
+			System.arraycopy(buffer, offset, stripe, stripeSize, fill);
+			stripeSize += fill;
+			offset += fill;
+			if (stripeSize < 32)
+				return;
+			consumeStripe(stripe, 0);
+			stripeSize = 0;
+		}
+
+		while (offset + 32 <= end) {
+			consumeStripe(buffer, offset);
+			offset += 32;
+		}
+
+		if (offset < end) {
+			System.arraycopy(buffer, offset, stripe, 0, end - offset);
+			stripeSize = end - offset;
+		}
+	}
+
+	public long digest() {
+		long hash;
+		if (totalLength >= 32) {
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		} else {
+			hash = seed + PRIME5;
+		}
+		hash += totalLength;
+
+		int position = 0;
+		while (position + 8 <= stripeSize) {
+			hash ^= round(0, readLong(stripe, position));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+			position += 8;
+		}
+		if (position + 4 <= stripeSize) {
+			hash ^= (readInt(stripe, position) & 0xFFFFFFFFL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			position += 4;
+		}
+		while (position < stripeSize) {
+			hash ^= (stripe[position] & 0xFF) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+			position++;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	private void consumeStripe(byte[] buffer, int offset) {
+		v1 = round(v1, readLong(buffer, offset));
+		v2 = round(v2, readLong(buffer, offset + 8));
+		v3 = round(v3, readLong(buffer, offset + 16));
+		v4 = round(v4, readLong(buffer, offset + 24));
+	}
+
+	private static long round(long accumulator, long input) {
+		accumulator += input * PRIME2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * PRIME1;
+	}
+
+	private static long mergeRound(long accumulator, long value) {
+		accumulator ^= round(0, value);
+		return accumulator * PRIME1 + PRIME4;
+	}
+
+	private static long readLong(byte[] buffer, int offset) {
+		return (readInt(buffer, offset) & 0xFFFFFFFFL) | ((long) readInt(buffer, offset + 4) << 32);
+	}
+
+	private static int readInt(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8)
+				| ((buffer[offset + 2] & 0xFF) << 16) | ((buffer[offset + 3] & 0xFF) << 24);
+	}
+}